@@ -0,0 +1,62 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil;
+
+/**
+ * Shared fixtures for the benchmarks.
+ */
+public final class Benchmarks {
+
+    /**
+     * Progress consumer that discards everything, with debug output turned off as it
+     * would be in a batch job.
+     */
+    public static final ProgressConsumer QUIET = new ProgressConsumer() {
+        @Override
+        public void onDebugMessage(String msg) {
+        }
+
+        @Override
+        public void onSourceError(FileSpec file, long fileOffset, String message) {
+        }
+
+        @Override
+        public void onFatalError(Throwable t) {
+            throw new IllegalStateException(t);
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return false;
+        }
+    };
+
+    private Benchmarks() {
+    }
+
+}
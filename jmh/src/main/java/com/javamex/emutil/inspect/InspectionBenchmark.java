@@ -0,0 +1,91 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.inspect;
+
+import com.javamex.emutil.CancellationToken;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Master System header checksum calculation, on a ROM already in memory, and the single
+ * pass over a ROM file that {@link SMSInspector} makes to calculate its digests and checksum.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InspectionBenchmark {
+
+    @Param({"131072", "524288", "1048576"})
+    public int size;
+
+    private byte[] rom;
+    private Path romFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        rom = new byte[size];
+        new Random(size).nextBytes(rom);
+        romFile = Files.createTempFile("inspectbench", ".sms");
+        Files.write(romFile, rom);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(romFile);
+    }
+
+    @Benchmark
+    public int headerChecksum() throws IOException {
+        SMSRomInspector inspector = new SMSRomInspector(Paths.get("bench.sms"), false, rom);
+        inspector.readHeaderInfo();
+        return inspector.getCalculatedChecksum();
+    }
+
+    @Benchmark
+    public RomDigests digests() throws IOException {
+        return RomHasher.hash(romFile, size, null, new CancellationToken());
+    }
+
+    @Benchmark
+    public RomDigests digestsWithInspection() throws IOException {
+        SMSRomInspector inspector = new SMSRomInspector(romFile, false, (long) size);
+        RomDigests ret = RomHasher.hash(romFile, size, inspector::update, new CancellationToken());
+        inspector.finish();
+        return ret;
+    }
+
+}
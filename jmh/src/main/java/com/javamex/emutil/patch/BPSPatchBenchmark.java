@@ -0,0 +1,174 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Applying a BPS patch with {@link BPSPatcher#createPatchedFile}, for targets of different
+ * sizes and patches dominated by different kinds of action. Each combination runs in its own
+ * fork, so that whether decoded patches are cached can be set before the cache is first used.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BPSPatchBenchmark {
+
+    public enum Mix {
+        /** Long source reads and copies, as in a patch that moves data around. */
+        SOURCE_COPY,
+        /** Short runs of new data taken from the patch, as in a translation. */
+        TARGET_READ,
+        /** Copies of earlier target data, including short-period fills. */
+        TARGET_COPY,
+        /** All four kinds of action in random order. */
+        MIXED
+    }
+
+    @Param({"1048576", "16777216"})
+    public int size;
+
+    @Param
+    public Mix mix;
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private Path dir;
+    private BPSPatcher patcher;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        System.setProperty("emutil.patchCacheMB", cached ? "1024" : "0");
+        dir = Files.createTempDirectory("bpsbench");
+        Random r = new Random(size ^ mix.ordinal());
+        byte[] source = new byte[size];
+        r.nextBytes(source);
+        Path sourceFile = dir.resolve("source.bin");
+        Path patchFile = dir.resolve("patch.bps");
+        Files.write(sourceFile, source);
+        Files.write(patchFile, createPatch(source, mix, r));
+
+        BPSPatchParams params = new BPSPatchParams();
+        params.setInput(BPSPatchParams.SPEC_INPUT_ROM, sourceFile);
+        params.setInput(BPSPatchParams.SPEC_PATCH_FILE, patchFile);
+        params.setOutput(BPSPatchParams.SPEC_OUTPUT, dir.resolve("target.bin"));
+        patcher = new BPSPatcher(params);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public void createPatchedFile() throws IOException {
+        patcher.createPatchedFile(Benchmarks.QUIET, new CancellationToken());
+    }
+
+    /**
+     * Build a patch turning {@code source} into a target of the same size using mostly the given kind of action.
+     */
+    static byte[] createPatch(byte[] source, Mix mix, Random r) throws IOException {
+        byte[] target = new byte[source.length];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BPSPatchWriter writer = new BPSPatchWriter(out);
+        writer.writeHeader(source.length, target.length);
+        int pos = 0;
+        while (pos < target.length) {
+            int kind;
+            switch (mix) {
+                case SOURCE_COPY:
+                    kind = r.nextInt(8) == 0 ? 1 : r.nextInt(2) * 2;
+                    break;
+                case TARGET_READ:
+                    kind = r.nextInt(4) == 0 ? 0 : 1;
+                    break;
+                case TARGET_COPY:
+                    kind = (pos < 4096 || r.nextInt(8) == 0) ? 1 : 3;
+                    break;
+                default:
+                    kind = (pos == 0) ? 1 : r.nextInt(4);
+                    break;
+            }
+            int len = Math.min(target.length - pos, (kind == 1) ? 16 + r.nextInt(240) : 256 + r.nextInt(3840));
+            switch (kind) {
+                case 0:
+                    System.arraycopy(source, pos, target, pos, len);
+                    writer.sourceRead(len);
+                    break;
+                case 1:
+                    for (int i = 0; i < len; i++) {
+                        target[pos + i] = (byte) r.nextInt(256);
+                    }
+                    writer.targetRead(target, pos, len);
+                    break;
+                case 2:
+                    int from = r.nextInt(source.length - len + 1);
+                    System.arraycopy(source, from, target, pos, len);
+                    writer.sourceCopy(from, len);
+                    break;
+                default:
+                    // One copy in four repeats a short pattern just written
+                    int back = (r.nextInt(4) == 0) ? 1 + r.nextInt(4) : 1 + r.nextInt(pos);
+                    for (int i = 0; i < len; i++) {
+                        target[pos + i] = target[pos - back + i];
+                    }
+                    writer.targetCopy(pos - back, len);
+                    break;
+            }
+            pos += len;
+        }
+        writer.finish(crc(source), crc(target));
+        return out.toByteArray();
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+}
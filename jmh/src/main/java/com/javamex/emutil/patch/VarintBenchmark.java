@@ -0,0 +1,98 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.SegmentedBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding the variable-length integers that make up BPS and UPS action streams, for values
+ * of different encoded widths.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VarintBenchmark {
+
+    private static final int COUNT = 1 << 20;
+
+    /**
+     * Encoded width of the values in bytes, or 0 for a mix of widths typical of BPS actions.
+     */
+    @Param({"1", "2", "3", "0"})
+    public int width;
+
+    private SegmentedBuffer data;
+
+    @Setup
+    public void setUp() {
+        Random r = new Random(width);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < COUNT; i++) {
+            int w = (width != 0) ? width : (r.nextInt(4) == 0 ? 2 + r.nextInt(2) : 1);
+            // Values below 128 take one byte, below 16512 two, and so on
+            long value = (w == 1) ? r.nextInt(128) : (w == 2) ? 128 + r.nextInt(16384) : 16512 + r.nextInt(1 << 21);
+            writeVarint(out, value);
+        }
+        byte[] bytes = out.toByteArray();
+        data = SegmentedBuffer.allocate(bytes.length);
+        data.put(0, bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long readVarint() {
+        PatchInput in = new PatchInput(data);
+        long sum = 0;
+        for (int i = 0; i < COUNT; i++) {
+            sum += in.readVarint();
+        }
+        return sum;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while (true) {
+            int b = (int) (value & 0x7f);
+            value >>>= 7;
+            if (value == 0) {
+                out.write(0x80 | b);
+                return;
+            }
+            out.write(b);
+            value--;
+        }
+    }
+
+}
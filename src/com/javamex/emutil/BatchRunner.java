@@ -0,0 +1,335 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Headless entry point for running utility functions from the command line or a
+ * job manifest, without loading any AWT or Swing classes. Jobs run concurrently
+ * on a fixed-size pool, and a JSON line describing each job is written to standard
+ * output as it completes, followed by a summary line.
+ *
+ * <pre>
+ * BatchRunner [--threads n] [--verbose] FUNCTION Key=path ... [Option=true ...]
+ * BatchRunner [--threads n] [--verbose] --jobs manifest.txt
+ * </pre>
+ *
+ * Each line of a manifest holds one job in the same form as the command line.
+ * Blank lines and lines starting with '#' are ignored, paths may be double-quoted,
+ * and relative paths are resolved against the manifest's directory.
+ */
+public class BatchRunner {
+
+    private final int threadCount;
+    private final boolean verbose;
+    private final PrintStream out = System.out;
+    private final PrintStream log = System.err;
+
+    private BatchRunner(int threadCount, boolean verbose) {
+        this.threadCount = threadCount;
+        this.verbose = verbose;
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean verbose = false;
+        Path manifest = null;
+        int i = 0;
+        try {
+            for (; i < args.length && args[i].startsWith("--"); i++) {
+                switch (args[i]) {
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--verbose":
+                        verbose = true;
+                        break;
+                    case "--jobs":
+                        manifest = Paths.get(args[++i]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            List<Job> jobs = new ArrayList<>();
+            if (manifest != null) {
+                jobs.addAll(readManifest(manifest));
+            } else if (i < args.length) {
+                jobs.add(parseJob(1, Arrays.asList(args).subList(i, args.length), null));
+            } else {
+                throw new IllegalArgumentException("No job specified");
+            }
+            if (threads < 1) {
+                throw new IllegalArgumentException("Thread count must be at least 1");
+            }
+            int failed = new BatchRunner(threads, verbose).runJobs(jobs);
+            System.exit(failed == 0 ? 0 : 1);
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: BatchRunner [--threads n] [--verbose] FUNCTION Key=path ... [Option=true ...]");
+            System.err.println("       BatchRunner [--threads n] [--verbose] --jobs manifest.txt");
+            System.err.println("Functions:");
+            for (UtilFunctionType type : UtilFunctionType.values()) {
+                System.err.println("  " + type.name() + " (" + type.getDisplayTitle() + ")");
+            }
+            System.exit(2);
+        }
+    }
+
+    private static List<Job> readManifest(Path manifest) throws IOException {
+        List<Job> ret = new ArrayList<>();
+        Path baseDir = manifest.toAbsolutePath().getParent();
+        List<String> lines = Files.readAllLines(manifest);
+        for (int lineNo = 1; lineNo <= lines.size(); lineNo++) {
+            String line = lines.get(lineNo - 1).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            try {
+                ret.add(parseJob(ret.size() + 1, tokenize(line), baseDir));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + lineNo + " of " + manifest + ": " + e.getMessage());
+            }
+        }
+        return ret;
+    }
+
+    private static List<String> tokenize(String line) {
+        List<String> ret = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        boolean inToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inToken = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inToken) {
+                    ret.add(sb.toString());
+                    sb.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                sb.append(c);
+                inToken = true;
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quote");
+        }
+        if (inToken) {
+            ret.add(sb.toString());
+        }
+        return ret;
+    }
+
+    private static Job parseJob(int jobNo, List<String> tokens, Path baseDir) {
+        UtilFunctionType type;
+        try {
+            type = UtilFunctionType.valueOf(tokens.get(0).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown function: " + tokens.get(0));
+        }
+        UtilFunctionParams params;
+        try {
+            params = UtilFunctionParams.constructParams(type);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not construct parameters for " + type, e);
+        }
+        for (String token : tokens.subList(1, tokens.size())) {
+            int eq = token.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected Key=value: " + token);
+            }
+            String key = token.substring(0, eq);
+            String value = token.substring(eq + 1);
+            OptionSpec option = findOption(params.getOptionSpecs(), key);
+            if (option != null) {
+                if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                    throw new IllegalArgumentException("Expected true or false: " + token);
+                }
+                params.setOption(option, Boolean.parseBoolean(value));
+                continue;
+            }
+            // Relative paths are against the manifest's directory, or else the working directory
+            Path p = (baseDir != null) ? baseDir.resolve(value) : Paths.get(value).toAbsolutePath();
+            FileSpec spec = findSpec(params.getInputSpecs(), key);
+            if (spec != null) {
+                params.setInput(spec, p);
+            } else if ((spec = findSpec(params.getOutputSpecs(), key)) != null) {
+                params.setOutput(spec, p);
+            } else {
+                throw new IllegalArgumentException("Unknown parameter for " + type.name() + ": " + key);
+            }
+        }
+        return new Job(jobNo, type, params);
+    }
+
+    private static FileSpec findSpec(List<FileSpec> specs, String key) {
+        for (FileSpec spec : specs) {
+            if (spec.getKey().equalsIgnoreCase(key)) {
+                return spec;
+            }
+        }
+        return null;
+    }
+
+    private static OptionSpec findOption(List<OptionSpec> specs, String key) {
+        for (OptionSpec spec : specs) {
+            if (spec.getKey().equalsIgnoreCase(key)) {
+                return spec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run the given jobs, printing a result line for each as it completes.
+     * Returns the number of jobs that failed.
+     */
+    private int runJobs(List<Job> jobs) throws InterruptedException {
+        long startTime = System.nanoTime();
+        // An empty manifest still gets its summary line
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount, jobs.size())));
+        int failed = 0;
+        try {
+            CompletionService<Job> completion = new ExecutorCompletionService<>(executor);
+            for (Job job : jobs) {
+                completion.submit(() -> runJob(job), job);
+            }
+            for (int i = 0; i < jobs.size(); i++) {
+                Job job;
+                try {
+                    job = completion.take().get();
+                } catch (ExecutionException e) {
+                    // runJob catches everything, so this is not expected
+                    throw new IllegalStateException(e.getCause());
+                }
+                if (!job.status.equals("OK")) {
+                    failed++;
+                }
+                out.println(job.toJson());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        out.printf("{\"summary\":true,\"jobs\":%d,\"failed\":%d,\"millis\":%d}%n",
+                jobs.size(), failed, (System.nanoTime() - startTime) / 1_000_000);
+        return failed;
+    }
+
+    private void runJob(Job job) {
+        long startTime = System.nanoTime();
+        try {
+            job.params.validate();
+            UtilFunction<?> fn = UtilFunction.getFunction(job.type, job.params);
+            fn.runFunction(new ProgressConsumer() {
+                @Override
+                public void onDebugMessage(String msg) {
+                    if (verbose) {
+                        log.println("[" + job.jobNo + "] " + msg);
+                    }
+                }
+
+                @Override
+                public void onSourceError(FileSpec file, long fileOffset, String message) {
+                    job.addError(String.format("Error in %s at 0x%08x : %s",
+                            file.getDisplayName(), fileOffset, message));
+                }
+
+                @Override
+                public void onFatalError(Throwable t) {
+                    job.addError(String.valueOf(t.getMessage() != null ? t.getMessage() : t));
+                }
+
+                @Override
+                public boolean isDebugEnabled() {
+                    return verbose;
+                }
+            }, new CancellationToken());
+            job.status = job.errors.isEmpty() ? "OK" : "ERROR";
+        } catch (ParameterValidationException e) {
+            job.addError(e.getMessage());
+            job.status = "INVALID";
+        } catch (Throwable t) {
+            job.addError(String.valueOf(t));
+            job.status = "ERROR";
+        } finally {
+            job.millis = (System.nanoTime() - startTime) / 1_000_000;
+        }
+    }
+
+    private static class Job {
+        private final int jobNo;
+        private final UtilFunctionType type;
+        private final UtilFunctionParams params;
+        private final List<String> errors = new ArrayList<>();
+        private String status;
+        private long millis;
+
+        Job(int jobNo, UtilFunctionType type, UtilFunctionParams params) {
+            this.jobNo = jobNo;
+            this.type = type;
+            this.params = params;
+        }
+
+        synchronized void addError(String msg) {
+            errors.add(msg);
+        }
+
+        synchronized String toJson() {
+            StringBuilder sb = new StringBuilder(128);
+            sb.append("{\"job\":").append(jobNo)
+                    .append(",\"function\":").append(JsonLinesWriter.quote(type.name()))
+                    .append(",\"status\":").append(JsonLinesWriter.quote(status))
+                    .append(",\"millis\":").append(millis)
+                    .append(",\"errors\":[");
+            for (int i = 0; i < errors.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(JsonLinesWriter.quote(errors.get(i)));
+            }
+            return sb.append("]}").toString();
+        }
+    }
+
+}
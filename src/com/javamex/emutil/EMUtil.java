@@ -36,8 +36,11 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -46,13 +49,20 @@ public class EMUtil extends JFrame {
 
     private final JComboBox<UtilFunctionType> functionChooser = new JComboBox<>(UtilFunctionType.values());
     private final Box paramsBox = Box.createVerticalBox();
-    private final JTextArea outputField = new JTextArea(20, 80);
+    private static final int MAX_OUTPUT_LINES = 100000;
+    private final LogListModel outputLog = new LogListModel(MAX_OUTPUT_LINES);
+    private final JList<String> outputList = new JList<>(outputLog);
+    private final JLabel overflowLabel = new JLabel(" ");
+    private final JProgressBar progressBar = new JProgressBar(0, 100);
     private final Map<FileSpec, FileSpecifier> fileSpecifiers = new HashMap<>();
     private final Map<FileSpec, Path> selectedPaths = new HashMap<>();
+    private final Set<OptionSpec> selectedOptions = new HashSet<>();
     private UtilFunctionType selectedFunctionType;
     private Path previousLocation;
+    private OperationWorker runningOp;
 
     private final Action axRunOp = createAction("Run", this::runSelectedOp);
+    private final Action axCancelOp = createAction("Cancel", this::cancelRunningOp);
     private final Action axQuit = createAction("Quit", this::quit);
 
     public static void main(String[] args) {
@@ -68,6 +78,7 @@ public class EMUtil extends JFrame {
         super(title);
         installUI();
         selectedFunctionType = UtilFunctionType.values()[0];
+        axCancelOp.setEnabled(false);
         populateMainPane(selectedFunctionType);
         pack();
     }
@@ -97,9 +108,16 @@ public class EMUtil extends JFrame {
     private JComponent createMainPanel() {
         Box b = Box.createVerticalBox();
         b.add(paramsBox);
-        JScrollPane sp = new JScrollPane(outputField);
+        // With fixed cell sizes, only the visible rows of the output are ever measured or drawn
+        outputList.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        FontMetrics fm = outputList.getFontMetrics(outputList.getFont());
+        outputList.setFixedCellHeight(fm.getHeight());
+        outputList.setFixedCellWidth(fm.charWidth('m') * 200);
+        JScrollPane sp = new JScrollPane(outputList);
         sp.setPreferredSize(new Dimension(820, 320));
         b.add(sp);
+        b.add(overflowLabel);
+        b.add(progressBar);
         return b;
     }
 
@@ -125,6 +143,21 @@ public class EMUtil extends JFrame {
         for (FileSpec output : outputs) {
             addFileSelector(paramsBox, output);
         }
+        for (OptionSpec option : params.getOptionSpecs()) {
+            addOptionCheckBox(paramsBox, option);
+        }
+    }
+
+    private void addOptionCheckBox(Box b, OptionSpec spec) {
+        JCheckBox cb = new JCheckBox(spec.getDisplayName(), selectedOptions.contains(spec));
+        cb.addItemListener(e -> {
+            if (e.getStateChange() == ItemEvent.SELECTED) {
+                selectedOptions.add(spec);
+            } else {
+                selectedOptions.remove(spec);
+            }
+        });
+        addLabelled(b, cb, "");
     }
 
     private void addFileSelector(Box b, FileSpec spec) {
@@ -141,6 +174,8 @@ public class EMUtil extends JFrame {
         b.add(Box.createHorizontalGlue());
         b.add(new JButton(axQuit));
         b.add(Box.createVerticalStrut(2));
+        b.add(new JButton(axCancelOp));
+        b.add(Box.createVerticalStrut(2));
         b.add(new JButton(axRunOp));
         b.add(Box.createHorizontalGlue());
         return b;
@@ -165,24 +200,33 @@ public class EMUtil extends JFrame {
     private void openFileBrowserFor(FileSpecifier fs) {
         JFileChooser jfc = new JFileChooser(new File("."));
         FileSpec fileSpec = fs.spec;
-        jfc.setFileFilter(new FileFilter() {
-            @Override
-            public boolean accept(File f) {
-                if (!f.isFile())
-                    return false;
-                Pattern patt = fileSpec.getFileNamePattern();
-                if (patt != null) {
-                    Matcher m = patt.matcher(f.getName());
-                    return m.matches();
+        if (fileSpec.getFileType().isDirectory()) {
+            jfc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        } else {
+            jfc.setFileFilter(new FileFilter() {
+                @Override
+                public boolean accept(File f) {
+                    if (!f.isFile())
+                        return false;
+                    Pattern patt = fileSpec.getFileNamePattern();
+                    if (patt != null) {
+                        // Inputs may also be gzip-compressed
+                        String name = f.getName();
+                        if (!fileSpec.isOutput() && name.toLowerCase().endsWith(".gz")) {
+                            name = name.substring(0, name.length() - 3);
+                        }
+                        Matcher m = patt.matcher(name);
+                        return m.matches();
+                    }
+                    return true;
                 }
-                return true;
-            }
 
-            @Override
-            public String getDescription() {
-                return fs.spec.getFilePatternDesc();
-            }
-        });
+                @Override
+                public String getDescription() {
+                    return fs.spec.getFilePatternDesc();
+                }
+            });
+        }
         Path prevFile = fs.selectedPath;
         Path rootDir = null;
         if (prevFile != null) {
@@ -215,7 +259,8 @@ public class EMUtil extends JFrame {
     private void runSelectedOp() {
         if (selectedFunctionType == null)
             return;
-        outputField.setText("");
+        outputLog.clear();
+        overflowLabel.setText(" ");
 
         try {
             UtilFunctionParams params = UtilFunctionParams.constructParams(selectedFunctionType);
@@ -238,37 +283,16 @@ public class EMUtil extends JFrame {
                     params.setOutput(output, p);
                 }
             }
+            for (OptionSpec option : params.getOptionSpecs()) {
+                params.setOption(option, selectedOptions.contains(option));
+            }
             params.validate();
 
-            // At present, the operations in question will run very quickly, so just run in the EDT.
-            // For longer-running operations, we would need to spawn a new thread.
-            StringBuilder sb = new StringBuilder(1024);
             UtilFunction<?> fn = UtilFunction.getFunction(selectedFunctionType, params);
-            String newline = String.format("%n");
-            fn.runFunction(new ProgressConsumer() {
-                @Override
-                public void onDebugMessage(String msg) {
-                    sb.append(msg).append(newline);
-                }
-
-                @Override
-                public void onSourceError(FileSpec file, long fileOffset, String message) {
-                    String formattedStr = String.format("Error in %s at 0x%08x : %s%n",
-                            file.getDisplayName(), fileOffset, message);
-                    sb.append(formattedStr);
-                }
-
-                @Override
-                public void onFatalError(Throwable t) {
-                    t.printStackTrace();
-                    // Do in invokeLater so that other messages appear behind the dialog
-                    SwingUtilities.invokeLater(() -> {
-                        JOptionPane.showMessageDialog(EMUtil.this, "An error occurred running this operation: " + t.getMessage(),
-                                "Error", JOptionPane.ERROR_MESSAGE);
-                    });
-                }
-            });
-            outputField.setText(sb.toString());
+            OperationWorker worker = new OperationWorker(fn);
+            runningOp = worker;
+            setRunning(true);
+            worker.execute();
         } catch (Throwable t) {
             String msg;
             if (t instanceof ParameterValidationException) {
@@ -280,6 +304,19 @@ public class EMUtil extends JFrame {
         }
     }
 
+    private void cancelRunningOp() {
+        if (runningOp != null) {
+            runningOp.cancellation.cancel();
+        }
+    }
+
+    private void setRunning(boolean running) {
+        axRunOp.setEnabled(!running);
+        axCancelOp.setEnabled(running);
+        functionChooser.setEnabled(!running);
+        progressBar.setValue(0);
+    }
+
     private void quit() {
         System.exit(0);
     }
@@ -306,6 +343,109 @@ public class EMUtil extends JFrame {
 
     }
 
+    /**
+     * Runs a function off the Event Dispatch Thread, passing its messages back to be
+     * appended to the output as they arrive and its progress to the progress bar.
+     */
+    private class OperationWorker extends SwingWorker<Void, Object> {
+        private final UtilFunction<?> fn;
+        private final CancellationToken cancellation = new CancellationToken();
+
+        OperationWorker(UtilFunction<?> fn) {
+            this.fn = fn;
+            addPropertyChangeListener(evt -> {
+                if ("progress".equals(evt.getPropertyName())) {
+                    progressBar.setValue((Integer) evt.getNewValue());
+                }
+            });
+        }
+
+        @Override
+        protected Void doInBackground() {
+            fn.runFunction(new ProgressConsumer() {
+                @Override
+                public void onDebugMessage(String msg) {
+                    publish(msg);
+                }
+
+                @Override
+                public void onSourceError(FileSpec file, long fileOffset, String message) {
+                    publish(String.format("Error in %s at 0x%08x : %s",
+                            file.getDisplayName(), fileOffset, message));
+                }
+
+                @Override
+                public void onFatalError(Throwable t) {
+                    if (t instanceof CancellationException) {
+                        publish("Operation cancelled");
+                        return;
+                    }
+                    t.printStackTrace();
+                    // Do in invokeLater so that other messages appear behind the dialog
+                    SwingUtilities.invokeLater(() -> {
+                        JOptionPane.showMessageDialog(EMUtil.this, "An error occurred running this operation: " + t.getMessage(),
+                                "Error", JOptionPane.ERROR_MESSAGE);
+                    });
+                }
+
+                @Override
+                public void onProgress(int percentComplete) {
+                    setProgress(percentComplete);
+                }
+
+                @Override
+                public boolean isDebugEnabled() {
+                    return true;
+                }
+
+                @Override
+                public void onPatchAction(PatchAction action, long targetOffset, long readOffset, long length) {
+                    // Only formatted if the line is ever displayed
+                    publish(new PatchActionLine(action, targetOffset, readOffset, length));
+                }
+            }, cancellation);
+            return null;
+        }
+
+        @Override
+        protected void process(List<Object> chunks) {
+            // Messages published since the last call arrive together, and are added in one go
+            outputLog.append(chunks);
+            outputList.ensureIndexIsVisible(outputLog.getSize() - 1);
+            if (outputLog.getSpilledLineCount() > 0) {
+                overflowLabel.setText(outputLog.getSpilledLineCount() + " earlier lines of output written to "
+                        + outputLog.getSpillFile());
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (runningOp == this) {
+                runningOp = null;
+                setRunning(false);
+            }
+        }
+    }
+
+    private static class PatchActionLine {
+        private final PatchAction action;
+        private final long targetOffset;
+        private final long readOffset;
+        private final long length;
+
+        PatchActionLine(PatchAction action, long targetOffset, long readOffset, long length) {
+            this.action = action;
+            this.targetOffset = targetOffset;
+            this.readOffset = readOffset;
+            this.length = length;
+        }
+
+        @Override
+        public String toString() {
+            return action.describe(targetOffset, readOffset, length);
+        }
+    }
+
     private static Action createAction(String caption, Runnable r) {
         return new ActionImpl<>(caption, null, (x) -> r.run(), null);
     }
@@ -37,8 +37,14 @@ public class FileSpec {
     private final Pattern fileNamePattern;
     private final String filePatternDesc;
     private final boolean output;
+    private final boolean optional;
 
     public FileSpec(String key, FileType type, String displayName, Pattern fileNamePattern, String filePatternDesc, boolean output) {
+        this(key, type, displayName, fileNamePattern, filePatternDesc, output, false);
+    }
+
+    public FileSpec(String key, FileType type, String displayName, Pattern fileNamePattern, String filePatternDesc,
+                    boolean output, boolean optional) {
         Objects.requireNonNull(key);
         Objects.requireNonNull(type);
         this.key = key;
@@ -47,6 +53,11 @@ public class FileSpec {
         this.fileNamePattern = fileNamePattern;
         this.filePatternDesc = filePatternDesc;
         this.output = output;
+        this.optional = optional;
+    }
+
+    public String getKey() {
+        return this.key;
     }
 
     public FileType getFileType() {
@@ -69,6 +80,13 @@ public class FileSpec {
         return output;
     }
 
+    /**
+     * Whether the function can run without a path being given for this file.
+     */
+    public boolean isOptional() {
+        return optional;
+    }
+
     @Override
     public int hashCode() {
         return fileType.hashCode() + 17 * key.hashCode();
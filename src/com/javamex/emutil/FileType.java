@@ -29,6 +29,28 @@ package com.javamex.emutil;
 public enum FileType {
 
     ROM_FILE,
-    PATCH_FILE
+    PATCH_FILE,
+    PATCH_LIST,
+    DAT_FILE,
+    REPORT_FILE,
+    ROM_DIRECTORY(true),
+    PATCH_DIRECTORY(true);
+
+    private final boolean directory;
+
+    FileType() {
+        this(false);
+    }
+
+    FileType(boolean directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Whether paths of this type name a directory rather than a single file.
+     */
+    public boolean isDirectory() {
+        return directory;
+    }
 
 }
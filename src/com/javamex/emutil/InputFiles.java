@@ -0,0 +1,284 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Access to input files that may be held in a container rather than directly on disk.
+ * A path of the form {@code library.zip!/dir/game.sms} names an entry within a zip file,
+ * and a path ending in {@code .gz} names a gzip-compressed file. Contents are decompressed
+ * straight into memory as they are read, so nothing has to be extracted to disk first.
+ * Any other path is a plain file.
+ */
+public final class InputFiles {
+
+    private static final String ZIP_SUFFIX = ".zip!";
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Deflate cannot compress data by more than this ratio
+    private static final long MAX_DEFLATE_RATIO = 1032;
+
+    private InputFiles() {
+    }
+
+    /**
+     * Whether the path names an entry in a zip file or a gzip-compressed file.
+     */
+    public static boolean isCompressed(Path p) {
+        return zipSeparator(p) != -1 || isGzip(p);
+    }
+
+    public static boolean exists(Path p) {
+        int sep = zipSeparator(p);
+        if (sep == -1) {
+            return Files.exists(p);
+        }
+        if (!Files.isRegularFile(archiveOf(p, sep))) {
+            return false;
+        }
+        try (ZipFile zip = new ZipFile(archiveOf(p, sep).toFile())) {
+            return zip.getEntry(entryOf(p, sep)) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static boolean isReadable(Path p) {
+        int sep = zipSeparator(p);
+        return (sep == -1) ? Files.isReadable(p) : (Files.isReadable(archiveOf(p, sep)) && exists(p));
+    }
+
+    /**
+     * Attributes of the file on disk holding the data: for a zip entry, those of the zip file.
+     * These change whenever the contents might have.
+     */
+    public static BasicFileAttributes readAttributes(Path p) throws IOException {
+        int sep = zipSeparator(p);
+        return Files.readAttributes((sep == -1) ? p : archiveOf(p, sep), BasicFileAttributes.class);
+    }
+
+    /**
+     * The name of the file itself, without any directory, zip file or {@code .gz} extension.
+     */
+    public static String getFileName(Path p) {
+        int sep = zipSeparator(p);
+        String name = (sep == -1) ? p.getFileName().toString() : entryOf(p, sep);
+        name = name.substring(name.lastIndexOf('/') + 1);
+        if (sep == -1 && isGzip(p)) {
+            name = name.substring(0, name.length() - GZIP_SUFFIX.length());
+        }
+        return name;
+    }
+
+    /**
+     * The uncompressed size of the file. A gzip file is decompressed to count its size, since
+     * the gzip trailer only records the size of the last member, modulo 4GB.
+     */
+    public static long size(Path p) throws IOException {
+        int sep = zipSeparator(p);
+        if (sep != -1) {
+            try (ZipFile zip = new ZipFile(archiveOf(p, sep).toFile())) {
+                long size = getEntry(zip, p, sep).getSize();
+                if (size < 0) {
+                    throw new IOException("Size of zip entry not known: " + p);
+                }
+                return size;
+            }
+        }
+        if (isGzip(p)) {
+            try (InputStream in = newInputStream(p)) {
+                return in.transferTo(OutputStream.nullOutputStream());
+            }
+        }
+        return Files.size(p);
+    }
+
+    public static InputStream newInputStream(Path p) throws IOException {
+        int sep = zipSeparator(p);
+        if (sep != -1) {
+            ZipFile zip = new ZipFile(archiveOf(p, sep).toFile());
+            try {
+                // The zip file has to stay open until the entry has been read
+                return new FilterInputStream(zip.getInputStream(getEntry(zip, p, sep))) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            zip.close();
+                        }
+                    }
+                };
+            } catch (IOException | RuntimeException e) {
+                zip.close();
+                throw e;
+            }
+        }
+        if (isGzip(p)) {
+            return new GZIPInputStream(Files.newInputStream(p), BUFFER_SIZE);
+        }
+        return Files.newInputStream(p);
+    }
+
+    /**
+     * Make the whole file available as a buffer. Plain files are mapped; compressed files are
+     * decompressed directly into a heap buffer. The size recorded in the zip entry or gzip
+     * trailer is only taken as a first guess at the buffer size: the buffer grows if there
+     * is more data, and is trimmed to the data actually read.
+     */
+    public static SegmentedBuffer load(Path p) throws IOException {
+        if (!isCompressed(p)) {
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                return SegmentedBuffer.map(ch, FileChannel.MapMode.READ_ONLY, ch.size());
+            }
+        }
+        SegmentedBuffer ret = SegmentedBuffer.allocate(expectedSize(p));
+        byte[] buf = new byte[BUFFER_SIZE];
+        long pos = 0;
+        try (InputStream in = newInputStream(p)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                if (pos + n > ret.size()) {
+                    SegmentedBuffer bigger = SegmentedBuffer.allocate(Math.max(pos + n, 2 * ret.size()));
+                    ret.copyTo(0, bigger, 0, pos);
+                    ret = bigger;
+                }
+                ret.put(pos, buf, 0, n);
+                pos += n;
+            }
+        }
+        if (pos != ret.size()) {
+            SegmentedBuffer trimmed = SegmentedBuffer.allocate(pos);
+            ret.copyTo(0, trimmed, 0, pos);
+            ret = trimmed;
+        }
+        return ret;
+    }
+
+    /**
+     * The uncompressed size recorded in the zip entry or gzip trailer, limited to what the
+     * compressed data could expand to, so that a corrupt size cannot force a huge allocation.
+     */
+    private static long expectedSize(Path p) throws IOException {
+        long recorded;
+        long compressed;
+        int sep = zipSeparator(p);
+        if (sep != -1) {
+            try (ZipFile zip = new ZipFile(archiveOf(p, sep).toFile())) {
+                ZipEntry entry = getEntry(zip, p, sep);
+                recorded = entry.getSize();
+                compressed = entry.getCompressedSize();
+            }
+        } else {
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                if (ch.size() < 4) {
+                    throw new IOException("Not a gzip file: " + p);
+                }
+                ByteBuffer isize = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                while (isize.hasRemaining()) {
+                    if (ch.read(isize, ch.size() - 4 + isize.position()) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                recorded = isize.getInt(0) & 0xffffffffL;
+                compressed = ch.size();
+            }
+        }
+        if (recorded < 0 || compressed < 0) {
+            return BUFFER_SIZE;
+        }
+        return Math.min(recorded, compressed * MAX_DEFLATE_RATIO);
+    }
+
+    public static byte[] readAllBytes(Path p) throws IOException {
+        if (!isCompressed(p)) {
+            return Files.readAllBytes(p);
+        }
+        try (InputStream in = newInputStream(p)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static boolean isGzip(Path p) {
+        Path name = p.getFileName();
+        return name != null && name.toString().toLowerCase().endsWith(GZIP_SUFFIX);
+    }
+
+    /**
+     * @return the index in the path string of the separator following the zip file name, or -1
+     */
+    private static int zipSeparator(Path p) {
+        String s = p.toString();
+        String lower = s.toLowerCase();
+        int from = 0;
+        int idx;
+        while ((idx = lower.indexOf(ZIP_SUFFIX, from)) != -1) {
+            int sep = idx + ZIP_SUFFIX.length();
+            if (sep < s.length() && (s.charAt(sep) == '/' || s.charAt(sep) == p.getFileSystem().getSeparator().charAt(0))) {
+                return sep;
+            }
+            from = idx + 1;
+        }
+        return -1;
+    }
+
+    private static Path archiveOf(Path p, int sep) {
+        String s = p.toString();
+        return Paths.get(s.substring(0, sep - 1));
+    }
+
+    private static String entryOf(Path p, int sep) {
+        String entry = p.toString().substring(sep + 1);
+        return entry.replace(p.getFileSystem().getSeparator(), "/");
+    }
+
+    private static ZipEntry getEntry(ZipFile zip, Path p, int sep) throws IOException {
+        ZipEntry entry = zip.getEntry(entryOf(p, sep));
+        if (entry == null || entry.isDirectory()) {
+            throw new IOException("No such file in zip: " + p);
+        }
+        return entry;
+    }
+
+}
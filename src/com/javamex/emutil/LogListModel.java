@@ -0,0 +1,176 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * List model holding the most recent lines of an operation's output in a ring buffer, so that
+ * memory use and the cost of displaying the output are bounded however much is written. Lines
+ * that no longer fit are moved to a temporary file. Lines are added a batch at a time, with one
+ * event per batch, and the model must only be used on the Event Dispatch Thread.
+ *
+ * <p>A line may be held as any object, such as an event, and is only turned into text with
+ * {@code toString()} when it is displayed or moved to the file.</p>
+ */
+public class LogListModel extends AbstractListModel<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object[] lines;
+    private int first;
+    private int count;
+    private Path spillFile;
+    private Writer spillWriter;
+    private long spilledLines;
+    private boolean spillFailed;
+
+    public LogListModel(int maxLines) {
+        this.lines = new Object[maxLines];
+    }
+
+    @Override
+    public int getSize() {
+        return count;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return lines[(first + index) % lines.length].toString();
+    }
+
+    public void append(List<?> newLines) {
+        int n = newLines.size();
+        if (n == 0) {
+            return;
+        }
+        int evict = Math.max(0, count + n - lines.length);
+        int evictFromRing = Math.min(evict, count);
+        if (evictFromRing > 0) {
+            for (int i = 0; i < evictFromRing; i++) {
+                int idx = (first + i) % lines.length;
+                spill(lines[idx]);
+                lines[idx] = null;
+            }
+            first = (first + evictFromRing) % lines.length;
+            count -= evictFromRing;
+            fireIntervalRemoved(this, 0, evictFromRing - 1);
+        }
+        // If the batch alone is larger than the buffer, its first lines go straight to the file
+        int skip = evict - evictFromRing;
+        for (int i = 0; i < skip; i++) {
+            spill(newLines.get(i));
+        }
+        int oldCount = count;
+        for (int i = skip; i < n; i++) {
+            lines[(first + count) % lines.length] = newLines.get(i);
+            count++;
+        }
+        flushSpill();
+        fireIntervalAdded(this, oldCount, count - 1);
+    }
+
+    public void clear() {
+        int oldCount = count;
+        Arrays.fill(lines, null);
+        first = 0;
+        count = 0;
+        closeSpill();
+        if (spillFile != null) {
+            try {
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                // Left for the system to clear out of its temporary directory
+            }
+        }
+        spillFile = null;
+        spilledLines = 0;
+        spillFailed = false;
+        if (oldCount > 0) {
+            fireIntervalRemoved(this, 0, oldCount - 1);
+        }
+    }
+
+    /**
+     * @return the file holding lines that no longer fit in the model, or null if there are none
+     */
+    public Path getSpillFile() {
+        return spillFile;
+    }
+
+    public long getSpilledLineCount() {
+        return spilledLines;
+    }
+
+    private void spill(Object line) {
+        if (spillFailed) {
+            return;
+        }
+        try {
+            if (spillWriter == null) {
+                spillFile = Files.createTempFile("emutil-log", ".txt");
+                spillFile.toFile().deleteOnExit();
+                spillWriter = Files.newBufferedWriter(spillFile);
+            }
+            spillWriter.write(line.toString());
+            spillWriter.write(System.lineSeparator());
+            spilledLines++;
+        } catch (IOException e) {
+            // Earlier output is then simply discarded
+            spillFailed = true;
+        }
+    }
+
+    private void flushSpill() {
+        if (spillWriter != null && !spillFailed) {
+            try {
+                spillWriter.flush();
+            } catch (IOException e) {
+                spillFailed = true;
+            }
+        }
+    }
+
+    private void closeSpill() {
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+            } catch (IOException e) {
+                spillFailed = true;
+            }
+            spillWriter = null;
+        }
+    }
+
+}
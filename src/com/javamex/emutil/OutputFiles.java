@@ -0,0 +1,134 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes output files by way of a temporary file in the same directory, which is moved over
+ * the output only once it is complete. An existing output file is therefore left untouched
+ * if writing fails or is cancelled, no partial output is ever left behind, and the output
+ * may safely be the same file as one of the inputs, even while that input is mapped.
+ * A new output gets the same permissions as any newly created file, and a replaced output
+ * keeps the permissions it had.
+ */
+public final class OutputFiles {
+
+    /**
+     * Writes the contents of an output file to an open channel.
+     */
+    @FunctionalInterface
+    public interface ChannelWriter {
+        void write(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Writes the contents of an output file to a stream.
+     */
+    @FunctionalInterface
+    public interface StreamWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private OutputFiles() {
+    }
+
+    /**
+     * Write the given file through a channel opened for reading and writing, as needed to map it.
+     */
+    public static void write(Path out, ChannelWriter writer) throws IOException {
+        Path tmp = createTempFile(out);
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                writer.write(channel);
+            }
+            replace(tmp, out);
+        } catch (Throwable t) {
+            Files.deleteIfExists(tmp);
+            throw t;
+        }
+    }
+
+    /**
+     * Write the given file through a buffered stream.
+     */
+    public static void writeStream(Path out, StreamWriter writer) throws IOException {
+        Path tmp = createTempFile(out);
+        try {
+            try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                writer.write(stream);
+            }
+            replace(tmp, out);
+        } catch (Throwable t) {
+            Files.deleteIfExists(tmp);
+            throw t;
+        }
+    }
+
+    /**
+     * Create an empty file alongside the output. Unlike {@link Files#createTempFile}, which
+     * makes the file readable only by its owner, this leaves its permissions to the defaults.
+     */
+    private static Path createTempFile(Path out) throws IOException {
+        Path dir = out.toAbsolutePath().getParent();
+        while (true) {
+            Path tmp = dir.resolve("." + out.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                return Files.createFile(tmp);
+            } catch (FileAlreadyExistsException e) {
+                // Try another name
+            }
+        }
+    }
+
+    private static void replace(Path tmp, Path out) throws IOException {
+        if (Files.exists(out)) {
+            try {
+                Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(out));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system, where the defaults will have to do
+            }
+        }
+        try {
+            Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil;
+
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * CRC32 of large buffers, calculated a chunk at a time in parallel. The chunks' CRCs are
+ * then merged with {@link #combine}, which gives the CRC of two runs of data laid end to end
+ * from their separate CRCs and the length of the second, without looking at the data again.
+ */
+public final class ParallelCRC32 {
+
+    private static final long CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final long PARALLEL_THRESHOLD = 2 * CHUNK_SIZE;
+    // Reversed CRC-32 polynomial, as used by java.util.zip.CRC32
+    private static final long POLYNOMIAL = 0xedb88320L;
+
+    private ParallelCRC32() {
+    }
+
+    /**
+     * CRC32 of the whole of the given buffer.
+     */
+    public static long compute(SegmentedBuffer data) {
+        return compute(data, 0, data.size());
+    }
+
+    /**
+     * CRC32 of {@code len} bytes of the given buffer from {@code pos} onwards.
+     */
+    public static long compute(SegmentedBuffer data, long pos, long len) {
+        if (len < PARALLEL_THRESHOLD || Runtime.getRuntime().availableProcessors() < 2) {
+            return computeSerial(data, pos, len);
+        }
+        int chunks = (int) ((len + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        long[] crcs = new long[chunks];
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            long start = c * CHUNK_SIZE;
+            crcs[c] = computeSerial(data, pos + start, Math.min(CHUNK_SIZE, len - start));
+        });
+        long ret = crcs[0];
+        for (int c = 1; c < chunks; c++) {
+            ret = combine(ret, crcs[c], Math.min(CHUNK_SIZE, len - c * CHUNK_SIZE));
+        }
+        return ret;
+    }
+
+    private static long computeSerial(SegmentedBuffer data, long pos, long len) {
+        CRC32 crc = new CRC32();
+        data.updateChecksum(crc, pos, len);
+        return crc.getValue();
+    }
+
+    /**
+     * Given the CRC32 of two runs of data, and the length of the second, return the CRC32 of
+     * the two runs together. Appending {@code len2} bytes to the first run is a linear operation
+     * on its CRC, which is applied as a 32x32 bit matrix over GF(2): the matrix for one zero bit
+     * is squared repeatedly to give the matrices for 2, 4, 8... zero bits, and those for the set
+     * bits of the length are applied in turn. (This is the method of zlib's crc32_combine().)
+     */
+    public static long combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // Operator for a single zero bit
+        odd[0] = POLYNOMIAL;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // Operators for two and then four zero bits
+        square(even, odd);
+        square(odd, even);
+
+        // The first squaring below gives the operator for one zero byte
+        do {
+            square(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            len2 >>>= 1;
+            if (len2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            len2 >>>= 1;
+        } while (len2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long times(long[] matrix, long vec) {
+        long sum = 0;
+        for (int i = 0; vec != 0; i++, vec >>>= 1) {
+            if ((vec & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] result, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            result[n] = times(matrix, matrix[n]);
+        }
+    }
+
+}
@@ -28,7 +28,7 @@ package com.javamex.emutil;
 
 public class ParameterValidationException extends Exception {
 
-    protected ParameterValidationException(String msg) {
+    public ParameterValidationException(String msg) {
         super(msg);
     }
 
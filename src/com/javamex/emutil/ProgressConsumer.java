@@ -34,4 +34,32 @@ public interface ProgressConsumer {
 
     void onFatalError(Throwable t);
 
+    /**
+     * Report how far through the operation the function is, from 0 to 100.
+     * Functions only call this when the percentage changes.
+     */
+    default void onProgress(int percentComplete) {
+    }
+
+    /**
+     * Whether detailed debug output, such as an event for every patch action, is wanted.
+     * Functions check this before doing any work that would only serve to produce it.
+     * Off unless the consumer asks for it.
+     */
+    default boolean isDebugEnabled() {
+        return false;
+    }
+
+    /**
+     * Debug event for a single action while applying a patch: {@code length} bytes
+     * are written to the target at {@code targetOffset}, read from {@code readOffset}
+     * in the source, patch or target file according to the action. Only called if
+     * {@link #isDebugEnabled()} returns true. The default implementation formats the
+     * event as a debug message; consumers can instead keep the event and only format it,
+     * with {@link PatchAction#describe}, if it is ever displayed.
+     */
+    default void onPatchAction(PatchAction action, long targetOffset, long readOffset, long length) {
+        onDebugMessage(action.describe(targetOffset, readOffset, length));
+    }
+
 }
@@ -0,0 +1,268 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+/**
+ * A byte store addressed by {@code long} offsets and backed by a series of
+ * {@link ByteBuffer} segments. Files are mapped one segment at a time, so that
+ * files larger than 2GB can be read and written without copying their contents
+ * onto the Java heap.
+ */
+public final class SegmentedBuffer {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final ByteBuffer[] segments;
+    private final long size;
+
+    private SegmentedBuffer(ByteBuffer[] segments, long size) {
+        this.segments = segments;
+        this.size = size;
+    }
+
+    /**
+     * Map the first {@code size} bytes of the given channel. If the channel is opened for writing
+     * and is currently shorter than {@code size}, the underlying file is extended.
+     */
+    public static SegmentedBuffer map(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size: " + size);
+        }
+        ByteBuffer[] segments = new ByteBuffer[segmentCount(size)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(mode, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+        return new SegmentedBuffer(segments, size);
+    }
+
+    /**
+     * Allocate a zero-filled buffer of the given size on the Java heap.
+     */
+    public static SegmentedBuffer allocate(long size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size: " + size);
+        }
+        ByteBuffer[] segments = new ByteBuffer[segmentCount(size)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = ByteBuffer.allocate((int) Math.min(SEGMENT_SIZE, size - start));
+        }
+        return new SegmentedBuffer(segments, size);
+    }
+
+    /**
+     * Return a view of the first {@code newSize} bytes of this buffer, sharing its storage,
+     * so that one allocation can be reused for contents of varying size.
+     */
+    public SegmentedBuffer truncate(long newSize) {
+        checkRange(0, newSize);
+        return new SegmentedBuffer(segments, newSize);
+    }
+
+    private static int segmentCount(long size) {
+        long n = (size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT;
+        if (n > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Buffer too large: " + size);
+        }
+        return (int) n;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public byte get(long pos) {
+        checkIndex(pos);
+        return segments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & SEGMENT_MASK));
+    }
+
+    public void put(long pos, byte b) {
+        checkIndex(pos);
+        segments[(int) (pos >>> SEGMENT_SHIFT)].put((int) (pos & SEGMENT_MASK), b);
+    }
+
+    /**
+     * Copy {@code len} bytes from this buffer into {@code dst}, a segment-sized run at a time.
+     * If {@code dst} is this buffer and the ranges overlap, the copy behaves as though
+     * the source range were first copied to an intermediate buffer.
+     */
+    public void copyTo(long srcPos, SegmentedBuffer dst, long dstPos, long len) {
+        checkRange(srcPos, len);
+        dst.checkRange(dstPos, len);
+        if (dst == this && srcPos < dstPos && dstPos < srcPos + len) {
+            // Copying forwards piecewise would overwrite bytes not yet read
+            copyBackwards(srcPos, dstPos, len);
+            return;
+        }
+        while (len > 0) {
+            ByteBuffer srcSeg = segments[(int) (srcPos >>> SEGMENT_SHIFT)];
+            int srcOff = (int) (srcPos & SEGMENT_MASK);
+            ByteBuffer dstSeg = dst.segments[(int) (dstPos >>> SEGMENT_SHIFT)];
+            int dstOff = (int) (dstPos & SEGMENT_MASK);
+            int n = (int) Math.min(len, Math.min(srcSeg.capacity() - srcOff, dstSeg.capacity() - dstOff));
+            dstSeg.put(dstOff, srcSeg, srcOff, n);
+            srcPos += n;
+            dstPos += n;
+            len -= n;
+        }
+    }
+
+    private void copyBackwards(long srcPos, long dstPos, long len) {
+        long srcEnd = srcPos + len;
+        long dstEnd = dstPos + len;
+        while (len > 0) {
+            ByteBuffer srcSeg = segments[(int) ((srcEnd - 1) >>> SEGMENT_SHIFT)];
+            int srcLimit = (int) (((srcEnd - 1) & SEGMENT_MASK) + 1);
+            ByteBuffer dstSeg = segments[(int) ((dstEnd - 1) >>> SEGMENT_SHIFT)];
+            int dstLimit = (int) (((dstEnd - 1) & SEGMENT_MASK) + 1);
+            int n = (int) Math.min(len, Math.min(srcLimit, dstLimit));
+            dstSeg.put(dstLimit - n, srcSeg, srcLimit - n, n);
+            srcEnd -= n;
+            dstEnd -= n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Copy {@code len} bytes within this buffer, with the semantics of a forward byte-by-byte
+     * copy. Where the source run overlaps the bytes being written (typically to repeat a
+     * short pattern), the data already copied is repeated in runs that double in length
+     * each time, so that a long fill takes only a logarithmic number of bulk copies.
+     */
+    public void copyForward(long readPos, long writePos, long len) {
+        long distance = writePos - readPos;
+        if (distance <= 0 || distance >= len) {
+            copyTo(readPos, this, writePos, len);
+            return;
+        }
+        // Everything from readPos onwards repeats with period 'distance', so each copy
+        // can take as its source the whole run from readPos up to the current write point.
+        long done = 0;
+        while (done < len) {
+            long n = Math.min(len - done, distance + done);
+            copyTo(readPos, this, writePos + done, n);
+            done += n;
+        }
+    }
+
+    /**
+     * Copy {@code len} bytes of this buffer, from {@code pos} onwards, into the given array.
+     */
+    public void get(long pos, byte[] dst, int off, int len) {
+        checkRange(pos, len);
+        while (len > 0) {
+            ByteBuffer seg = segments[(int) (pos >>> SEGMENT_SHIFT)];
+            int segOff = (int) (pos & SEGMENT_MASK);
+            int n = Math.min(len, seg.capacity() - segOff);
+            seg.get(segOff, dst, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Copy {@code len} bytes from the given array into this buffer at {@code pos}.
+     */
+    public void put(long pos, byte[] src, int off, int len) {
+        checkRange(pos, len);
+        while (len > 0) {
+            ByteBuffer seg = segments[(int) (pos >>> SEGMENT_SHIFT)];
+            int segOff = (int) (pos & SEGMENT_MASK);
+            int n = Math.min(len, seg.capacity() - segOff);
+            seg.put(segOff, src, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Set {@code len} bytes starting at {@code pos} to zero.
+     */
+    public void clear(long pos, long len) {
+        checkRange(pos, len);
+        byte[] zeros = null;
+        while (len > 0) {
+            ByteBuffer seg = segments[(int) (pos >>> SEGMENT_SHIFT)];
+            int segOff = (int) (pos & SEGMENT_MASK);
+            int n = (int) Math.min(len, seg.capacity() - segOff);
+            if (seg.hasArray()) {
+                Arrays.fill(seg.array(), seg.arrayOffset() + segOff, seg.arrayOffset() + segOff + n, (byte) 0);
+            } else {
+                if (zeros == null) {
+                    zeros = new byte[(int) Math.min(len, 64 * 1024)];
+                }
+                for (int done = 0; done < n; ) {
+                    int k = Math.min(n - done, zeros.length);
+                    seg.put(segOff + done, zeros, 0, k);
+                    done += k;
+                }
+            }
+            pos += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Feed {@code len} bytes starting at {@code pos} into the given checksum.
+     */
+    public void updateChecksum(Checksum checksum, long pos, long len) {
+        checkRange(pos, len);
+        while (len > 0) {
+            ByteBuffer seg = segments[(int) (pos >>> SEGMENT_SHIFT)];
+            int segOff = (int) (pos & SEGMENT_MASK);
+            int n = (int) Math.min(len, seg.capacity() - segOff);
+            checksum.update(seg.slice(segOff, n));
+            pos += n;
+            len -= n;
+        }
+    }
+
+    private void checkIndex(long pos) {
+        if (pos < 0 || pos >= size) {
+            throw new IndexOutOfBoundsException("Position " + pos + " out of range (size " + size + ")");
+        }
+    }
+
+    private void checkRange(long pos, long len) {
+        if (pos < 0 || len < 0 || pos > size - len) {
+            throw new IndexOutOfBoundsException("Range " + pos + "+" + len + " out of range (size " + size + ")");
+        }
+    }
+
+}
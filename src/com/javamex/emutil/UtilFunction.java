@@ -26,10 +26,26 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 package com.javamex.emutil;
 
+import com.javamex.emutil.inspect.LibraryAuditParams;
+import com.javamex.emutil.inspect.LibraryAuditor;
+import com.javamex.emutil.inspect.SMSChecksumRepairParams;
+import com.javamex.emutil.inspect.SMSChecksumRepairer;
 import com.javamex.emutil.inspect.SMSInspector;
 import com.javamex.emutil.inspect.SMSInspectorParams;
+import com.javamex.emutil.patch.BPSChainParams;
+import com.javamex.emutil.patch.BPSChainPatcher;
+import com.javamex.emutil.patch.BPSCreateParams;
+import com.javamex.emutil.patch.BPSCreator;
 import com.javamex.emutil.patch.BPSPatchParams;
 import com.javamex.emutil.patch.BPSPatcher;
+import com.javamex.emutil.patch.BPSVerifier;
+import com.javamex.emutil.patch.BPSVerifyParams;
+import com.javamex.emutil.patch.IPSPatchParams;
+import com.javamex.emutil.patch.PatchCompatibilityChecker;
+import com.javamex.emutil.patch.PatchCompatibilityParams;
+import com.javamex.emutil.patch.IPSPatcher;
+import com.javamex.emutil.patch.UPSPatchParams;
+import com.javamex.emutil.patch.UPSPatcher;
 
 public abstract class UtilFunction<P extends UtilFunctionParams> {
 
@@ -43,16 +59,40 @@ public abstract class UtilFunction<P extends UtilFunctionParams> {
             case PATCH_BPS:
                 ret = (UtilFunction<T>) new BPSPatcher((BPSPatchParams) params);
                 break;
+            case PATCH_BPS_CHAIN:
+                ret = (UtilFunction<T>) new BPSChainPatcher((BPSChainParams) params);
+                break;
+            case VERIFY_BPS:
+                ret = (UtilFunction<T>) new BPSVerifier((BPSVerifyParams) params);
+                break;
+            case PATCH_IPS:
+                ret = (UtilFunction<T>) new IPSPatcher((IPSPatchParams) params);
+                break;
+            case PATCH_UPS:
+                ret = (UtilFunction<T>) new UPSPatcher((UPSPatchParams) params);
+                break;
+            case CREATE_BPS:
+                ret = (UtilFunction<T>) new BPSCreator((BPSCreateParams) params);
+                break;
+            case PATCH_COMPATIBILITY:
+                ret = (UtilFunction<T>) new PatchCompatibilityChecker((PatchCompatibilityParams) params);
+                break;
             case INSPECT_SMS_ROM:
                 ret =  (UtilFunction<T>) new SMSInspector((SMSInspectorParams) params);
                 break;
+            case REPAIR_SMS_CHECKSUM:
+                ret = (UtilFunction<T>) new SMSChecksumRepairer((SMSChecksumRepairParams) params);
+                break;
+            case AUDIT_SMS_LIBRARY:
+                ret = (UtilFunction<T>) new LibraryAuditor((LibraryAuditParams) params);
+                break;
             default:
                 throw new IllegalArgumentException("Unknown util function type");
         }
         return ret;
     }
 
-    public abstract void runFunction(ProgressConsumer progressConsumer);
+    public abstract void runFunction(ProgressConsumer progressConsumer, CancellationToken cancellation);
 
     protected P getParams() {
         return this.params;
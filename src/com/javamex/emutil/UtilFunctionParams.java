@@ -29,14 +29,18 @@ package com.javamex.emutil;
 import java.lang.reflect.Constructor;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public abstract class UtilFunctionParams {
 
     private final Map<FileSpec, Path> inputs = new HashMap<>();
     private final Map<FileSpec, Path> outputs = new HashMap<>();
+    private final Set<OptionSpec> options = new HashSet<>();
 
     public static UtilFunctionParams constructParams(UtilFunctionType type) throws Exception {
         Class<? extends UtilFunctionParams> paramsClass = type.getParamsClass();
@@ -48,6 +52,10 @@ public abstract class UtilFunctionParams {
 
     public abstract List<FileSpec> getOutputSpecs();
 
+    public List<OptionSpec> getOptionSpecs() {
+        return Collections.emptyList();
+    }
+
     public void setInput(FileSpec spec, Path input) {
         inputs.put(spec, input);
     }
@@ -64,24 +72,44 @@ public abstract class UtilFunctionParams {
         return outputs.get(spec);
     }
 
+    public void setOption(OptionSpec spec, boolean set) {
+        if (set) {
+            options.add(spec);
+        } else {
+            options.remove(spec);
+        }
+    }
+
+    public boolean isOptionSet(OptionSpec spec) {
+        return options.contains(spec);
+    }
+
     public void validate() throws ParameterValidationException {
         for (FileSpec fs : getInputSpecs()) {
             Path p = getInput(fs);
+            if (p == null && fs.isOptional())
+                continue;
             if (p == null)
                 throw new ParameterValidationException("Missing parameter: " + fs.getDisplayName());
-            if (!Files.exists(p)) {
+            if (!InputFiles.exists(p)) {
                 throw new ParameterValidationException("The specified " + fs.getDisplayName() + " does not exist");
             }
-            if (!Files.isReadable(p)) {
+            if (!InputFiles.isReadable(p)) {
                 throw new ParameterValidationException("The specified " + fs.getDisplayName() + " is not readable");
             }
+            if (fs.getFileType().isDirectory() != Files.isDirectory(p)) {
+                throw new ParameterValidationException("The specified " + fs.getDisplayName() + " is not a "
+                        + (fs.getFileType().isDirectory() ? "directory" : "file"));
+            }
         }
 
         for (FileSpec fs : getOutputSpecs()) {
             Path p = getOutput(fs);
+            if (p == null && fs.isOptional())
+                continue;
             if (p == null)
                 throw new ParameterValidationException("Missing parameter: " + fs.getDisplayName());
-            Path parentDir = p.getParent();
+            Path parentDir = p.toAbsolutePath().getParent();
             if (!Files.isWritable(parentDir)) {
                 throw new ParameterValidationException("Cannot write to: " + parentDir);
             }
@@ -26,15 +26,39 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 package com.javamex.emutil;
 
+import com.javamex.emutil.inspect.LibraryAuditParams;
+import com.javamex.emutil.inspect.LibraryAuditor;
+import com.javamex.emutil.inspect.SMSChecksumRepairParams;
+import com.javamex.emutil.inspect.SMSChecksumRepairer;
 import com.javamex.emutil.inspect.SMSInspector;
 import com.javamex.emutil.inspect.SMSInspectorParams;
+import com.javamex.emutil.patch.BPSChainParams;
+import com.javamex.emutil.patch.BPSChainPatcher;
+import com.javamex.emutil.patch.BPSCreateParams;
+import com.javamex.emutil.patch.BPSCreator;
 import com.javamex.emutil.patch.BPSPatchParams;
 import com.javamex.emutil.patch.BPSPatcher;
+import com.javamex.emutil.patch.BPSVerifier;
+import com.javamex.emutil.patch.BPSVerifyParams;
+import com.javamex.emutil.patch.IPSPatchParams;
+import com.javamex.emutil.patch.PatchCompatibilityChecker;
+import com.javamex.emutil.patch.PatchCompatibilityParams;
+import com.javamex.emutil.patch.IPSPatcher;
+import com.javamex.emutil.patch.UPSPatchParams;
+import com.javamex.emutil.patch.UPSPatcher;
 
 public enum UtilFunctionType {
 
     PATCH_BPS("Apply BPS Patch", BPSPatcher.class, BPSPatchParams.class),
-    INSPECT_SMS_ROM("Inspect SMS/Game Gear ROM", SMSInspector.class, SMSInspectorParams.class);
+    PATCH_BPS_CHAIN("Apply Chain of BPS Patches", BPSChainPatcher.class, BPSChainParams.class),
+    VERIFY_BPS("Verify BPS Patch", BPSVerifier.class, BPSVerifyParams.class),
+    PATCH_IPS("Apply IPS Patch", IPSPatcher.class, IPSPatchParams.class),
+    PATCH_UPS("Apply UPS Patch", UPSPatcher.class, UPSPatchParams.class),
+    CREATE_BPS("Create BPS Patch", BPSCreator.class, BPSCreateParams.class),
+    PATCH_COMPATIBILITY("Find Patches Matching ROMs", PatchCompatibilityChecker.class, PatchCompatibilityParams.class),
+    INSPECT_SMS_ROM("Inspect SMS/Game Gear ROM", SMSInspector.class, SMSInspectorParams.class),
+    REPAIR_SMS_CHECKSUM("Repair SMS/Game Gear Checksum", SMSChecksumRepairer.class, SMSChecksumRepairParams.class),
+    AUDIT_SMS_LIBRARY("Audit SMS/Game Gear Library", LibraryAuditor.class, LibraryAuditParams.class);
 
     private final String displayTitle;
     private final Class<? extends UtilFunctionParams> paramsClass;
@@ -0,0 +1,100 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.inspect;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Sums of unsigned byte values, as used by ROM header checksums. Eight bytes are read
+ * at a time as a {@code long} and added in parallel "SIMD within a register": the odd
+ * and even bytes are masked out into four 16-bit lanes, which are accumulated for up to
+ * 128 words before being folded into the total, that being the most each lane can take
+ * without overflowing.
+ */
+public final class ByteSums {
+
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long LANE_MASK = 0x00ff00ff00ff00ffL;
+    private static final int WORDS_PER_FOLD = 128;
+
+    private ByteSums() {
+    }
+
+    public static long sum(byte[] data, int off, int len) {
+        long total = 0;
+        int pos = off;
+        int end = off + len;
+        while (end - pos >= 8) {
+            int words = Math.min(WORDS_PER_FOLD, (end - pos) >>> 3);
+            long acc = 0;
+            for (int i = 0; i < words; i++, pos += 8) {
+                long x = (long) LONG_VIEW.get(data, pos);
+                acc += (x & LANE_MASK) + ((x >>> 8) & LANE_MASK);
+            }
+            total += foldLanes(acc);
+        }
+        for (; pos < end; pos++) {
+            total += data[pos] & 0xff;
+        }
+        return total;
+    }
+
+    /**
+     * Sum {@code len} bytes of the buffer from index {@code off}, without changing its position.
+     */
+    public static long sum(ByteBuffer bb, int off, int len) {
+        if (bb.hasArray()) {
+            return sum(bb.array(), bb.arrayOffset() + off, len);
+        }
+        // Byte order is irrelevant to a sum of bytes, so take whatever the buffer's is
+        long total = 0;
+        int pos = off;
+        int end = off + len;
+        while (end - pos >= 8) {
+            int words = Math.min(WORDS_PER_FOLD, (end - pos) >>> 3);
+            long acc = 0;
+            for (int i = 0; i < words; i++, pos += 8) {
+                long x = bb.getLong(pos);
+                acc += (x & LANE_MASK) + ((x >>> 8) & LANE_MASK);
+            }
+            total += foldLanes(acc);
+        }
+        for (; pos < end; pos++) {
+            total += bb.get(pos) & 0xff;
+        }
+        return total;
+    }
+
+    private static long foldLanes(long acc) {
+        return (acc & 0xffff) + ((acc >>> 16) & 0xffff) + ((acc >>> 32) & 0xffff) + (acc >>> 48);
+    }
+
+}
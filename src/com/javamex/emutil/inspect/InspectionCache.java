@@ -0,0 +1,250 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.inspect;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disk-backed cache of ROM inspection results, so that repeated scans of a library
+ * only re-read files that have changed. Entries are keyed by absolute path and
+ * are only returned while the file's size, modification time and (where the platform
+ * provides one) file key such as the inode number are unchanged. The least recently
+ * used entries are evicted once the cache holds {@link #MAX_ENTRIES}.
+ *
+ * <p>The cache is held in memory and written back in a compact binary form by
+ * {@link #save()}, which the default cache also does when the JVM exits. By default it
+ * is stored in {@code .emutil} in the user's home directory; the system property
+ * {@code emutil.cacheDir} overrides this.</p>
+ */
+public final class InspectionCache {
+
+    private static final int MAGIC = 0x454d4943;
+    private static final int VERSION = 2;
+    private static final int MAX_ENTRIES = 200_000;
+
+    private static InspectionCache defaultCache;
+
+    private final Path cacheFile;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private boolean dirty;
+
+    private InspectionCache(Path cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    public static synchronized InspectionCache getDefault() {
+        if (defaultCache == null) {
+            String dir = System.getProperty("emutil.cacheDir");
+            Path cacheDir = (dir != null) ? Paths.get(dir) : Paths.get(System.getProperty("user.home"), ".emutil");
+            InspectionCache cache = open(cacheDir.resolve("inspection-cache.bin"));
+            // Single-ROM inspections only add to the cache; it is written back once on exit
+            // rather than rewritten in full after each of them
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    cache.save();
+                } catch (IOException e) {
+                    // The results can always be recalculated
+                }
+            }, "Inspection cache writer"));
+            defaultCache = cache;
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Open the cache stored in the given file. A missing or unreadable file gives
+     * an empty cache, since its contents can always be recalculated.
+     */
+    public static InspectionCache open(Path cacheFile) {
+        InspectionCache ret = new InspectionCache(cacheFile);
+        if (Files.exists(cacheFile)) {
+            try {
+                ret.load();
+            } catch (IOException e) {
+                ret.entries.clear();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Return the cached result for the given file if it is still current.
+     */
+    public synchronized InspectionResult get(Path file, BasicFileAttributes attrs) {
+        Entry e = entries.get(keyFor(file));
+        if (e != null && e.matches(attrs)) {
+            return e.result;
+        }
+        return null;
+    }
+
+    public synchronized void put(Path file, BasicFileAttributes attrs, InspectionResult result) {
+        entries.put(keyFor(file), new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), fileKeyOf(attrs), result));
+        dirty = true;
+    }
+
+    /**
+     * Write the cache back to disk if it has changed. The file is replaced atomically,
+     * so that concurrent readers never see a partial cache.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        Files.createDirectories(cacheFile.toAbsolutePath().getParent());
+        Path tmp = Files.createTempFile(cacheFile.toAbsolutePath().getParent(), "inspection", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                // Written in access order, so that reloading preserves LRU order
+                for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                    out.writeUTF(me.getKey());
+                    me.getValue().write(out);
+                }
+            }
+            Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an inspection cache file");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                entries.put(key, Entry.read(in));
+            }
+        }
+    }
+
+    private static String keyFor(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private static String fileKeyOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return (key != null) ? key.toString() : "";
+    }
+
+    private static class Entry {
+        final long size;
+        final long lastModified;
+        final String fileKey;
+        final InspectionResult result;
+
+        Entry(long size, long lastModified, String fileKey, InspectionResult result) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.result = result;
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return attrs.size() == size &&
+                    attrs.lastModifiedTime().toMillis() == lastModified &&
+                    fileKeyOf(attrs).equals(fileKey);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeUTF(fileKey);
+            out.writeBoolean(result.isGameGear());
+            out.writeInt(result.getRomSize());
+            out.writeByte(result.getSizeAndRegionCode());
+            out.writeChar(result.getChecksumFromHeader());
+            out.writeChar(result.getCalculatedChecksum());
+            RomDigests d = result.getDigests();
+            out.writeInt((int) d.getCRC32());
+            out.write(d.getMD5());
+            out.write(d.getSHA1());
+            out.write(d.getSHA256());
+            out.writeByte(result.getChecksumCandidates().size());
+            for (SMSRomInspector.ChecksumCandidate c : result.getChecksumCandidates()) {
+                out.writeShort(c.getHeaderOffset());
+                out.writeByte(c.getSizeCode());
+                out.writeInt(c.getROMSize());
+                out.writeChar(c.getChecksumFromHeader());
+                out.writeChar(c.getCalculatedChecksum());
+            }
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            long size = in.readLong();
+            long lastModified = in.readLong();
+            String fileKey = in.readUTF();
+            boolean gameGear = in.readBoolean();
+            int romSize = in.readInt();
+            int sizeCode = in.readUnsignedByte();
+            char declared = in.readChar();
+            char calculated = in.readChar();
+            long crc = Integer.toUnsignedLong(in.readInt());
+            byte[] md5 = new byte[16];
+            byte[] sha1 = new byte[20];
+            byte[] sha256 = new byte[32];
+            in.readFully(md5);
+            in.readFully(sha1);
+            in.readFully(sha256);
+            RomDigests digests = new RomDigests(md5, sha1, sha256, crc);
+            int candidateCount = in.readUnsignedByte();
+            List<SMSRomInspector.ChecksumCandidate> candidates = new ArrayList<>(candidateCount);
+            for (int i = 0; i < candidateCount; i++) {
+                candidates.add(new SMSRomInspector.ChecksumCandidate(in.readUnsignedShort(), in.readUnsignedByte(),
+                        in.readInt(), in.readChar(), in.readChar()));
+            }
+            return new Entry(size, lastModified, fileKey,
+                    new InspectionResult(digests, gameGear, romSize, sizeCode, declared, calculated, candidates));
+        }
+    }
+
+}
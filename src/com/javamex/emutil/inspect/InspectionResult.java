@@ -0,0 +1,118 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.inspect;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of inspecting an SMS or Game Gear ROM: its digests together with the
+ * header values read and checksum calculated by {@link SMSRomInspector}. For a ROM with
+ * problems, the checksum for every size code and header location is kept too, so that
+ * it can be triaged again without re-reading the file. Results can be stored in, and
+ * restored from, an {@link InspectionCache}.
+ */
+public class InspectionResult {
+
+    private final RomDigests digests;
+    private final boolean gameGear;
+    private final int romSize;
+    private final int sizeAndRegionCode;
+    private final char checksumFromHeader;
+    private final char calculatedChecksum;
+    private final List<SMSRomInspector.ChecksumCandidate> checksumCandidates;
+
+    public InspectionResult(RomDigests digests, boolean gameGear, int romSize, int sizeAndRegionCode,
+                            char checksumFromHeader, char calculatedChecksum,
+                            List<SMSRomInspector.ChecksumCandidate> checksumCandidates) {
+        this.digests = digests;
+        this.gameGear = gameGear;
+        this.romSize = romSize;
+        this.sizeAndRegionCode = sizeAndRegionCode;
+        this.checksumFromHeader = checksumFromHeader;
+        this.calculatedChecksum = calculatedChecksum;
+        this.checksumCandidates = Collections.unmodifiableList(checksumCandidates);
+    }
+
+    public static InspectionResult of(SMSRomInspector ins, RomDigests digests) {
+        boolean problems = !ins.hasChecksumMatch() || !ins.getValidationErrors().isEmpty();
+        return new InspectionResult(digests, ins.isExpectedGameGear(), ins.getActualROMSize(),
+                ins.getSizeAndRegionCode(), ins.getChecksumFromHeader(), ins.getCalculatedChecksum(),
+                problems ? ins.getChecksumCandidates() : Collections.emptyList());
+    }
+
+    public RomDigests getDigests() {
+        return digests;
+    }
+
+    public boolean isGameGear() {
+        return gameGear;
+    }
+
+    public int getRomSize() {
+        return romSize;
+    }
+
+    public int getSizeAndRegionCode() {
+        return sizeAndRegionCode;
+    }
+
+    public char getChecksumFromHeader() {
+        return checksumFromHeader;
+    }
+
+    public char getCalculatedChecksum() {
+        return calculatedChecksum;
+    }
+
+    public int getDeclaredROMSize() {
+        return SMSRomInspector.getStandardROMSize(sizeAndRegionCode);
+    }
+
+    public boolean hasChecksumMatch() {
+        return checksumFromHeader == calculatedChecksum;
+    }
+
+    public List<SMSRomInspector.ValidationError> getValidationErrors() {
+        return SMSRomInspector.getValidationErrors(gameGear, hasChecksumMatch(), romSize, sizeAndRegionCode);
+    }
+
+    public boolean hasProblems() {
+        return !hasChecksumMatch() || !getValidationErrors().isEmpty();
+    }
+
+    /**
+     * The checksums for every size code and header location, as given by
+     * {@link SMSRomInspector#getChecksumCandidates()}, or an empty list if
+     * the ROM has no problems.
+     */
+    public List<SMSRomInspector.ChecksumCandidate> getChecksumCandidates() {
+        return checksumCandidates;
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.inspect;
+
+import com.javamex.emutil.FileSpec;
+import com.javamex.emutil.FileType;
+import com.javamex.emutil.UtilFunctionParams;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+public class LibraryAuditParams extends UtilFunctionParams {
+
+    protected static final FileSpec ROM_DIRECTORY_SPEC =
+            new FileSpec("RomDirectory", FileType.ROM_DIRECTORY, "ROM library folder", Pattern.compile(".+"),
+                    "Folder of SMS/Game Gear ROMs", false);
+    protected static final FileSpec DAT_SPEC =
+            new FileSpec("RomDatabase", FileType.DAT_FILE, "ROM database (optional)",
+                    Pattern.compile(".+\\.(?:dat|xml)", Pattern.CASE_INSENSITIVE), "No-Intro/TOSEC DAT file (*.dat, *.xml)", false, true);
+    protected static final FileSpec OUTPUT_SPEC =
+            new FileSpec("OutputReport", FileType.REPORT_FILE, "Output report",
+                    Pattern.compile(".+\\.(?:csv|jsonl)", Pattern.CASE_INSENSITIVE), "CSV or JSON Lines report (*.csv, *.jsonl)", true);
+
+    private static final List<FileSpec> INPUT_SPECS = Collections.unmodifiableList(Arrays.asList(ROM_DIRECTORY_SPEC, DAT_SPEC));
+    private static final List<FileSpec> OUTPUT_SPECS = Collections.singletonList(OUTPUT_SPEC);
+
+    @Override
+    public List<FileSpec> getInputSpecs() {
+        return INPUT_SPECS;
+    }
+
+    @Override
+    public List<FileSpec> getOutputSpecs() {
+        return OUTPUT_SPECS;
+    }
+}
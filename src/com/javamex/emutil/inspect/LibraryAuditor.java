@@ -0,0 +1,371 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.inspect;
+
+import com.javamex.emutil.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Inspects every SMS/Game Gear ROM in a directory tree, including those in zip files, on a
+ * work-stealing pool. The number of ROMs being inspected at once is bounded, so memory use
+ * does not grow with the size of the library, and a row is written to the report (CSV or
+ * JSON Lines, according to its extension) as each inspection completes. Results for files
+ * unchanged since they were last inspected come from the inspection cache. Each zip file is
+ * opened once, when the first ROM in it is audited, and closed after the last.
+ */
+public class LibraryAuditor extends UtilFunction<LibraryAuditParams> {
+    private static final Pattern ROM_FILENAME_PATTERN = Pattern.compile(".+\\.(?:sms|rom|gg)(?:\\.gz)?", Pattern.CASE_INSENSITIVE);
+    private static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList(
+            "file", "size", "md5", "sha1", "crc32", "declared_checksum", "actual_checksum",
+            "declared_size", "validation_errors", "database_match", "failure"));
+
+    public LibraryAuditor(LibraryAuditParams params) {
+        super(UtilFunctionType.AUDIT_SMS_LIBRARY, params);
+    }
+
+    @Override
+    public void runFunction(ProgressConsumer progressConsumer, CancellationToken cancellation) {
+        try {
+            audit(progressConsumer, cancellation);
+        } catch (Throwable t) {
+            progressConsumer.onFatalError(t);
+        }
+    }
+
+    private void audit(ProgressConsumer progressConsumer, CancellationToken cancellation) throws Exception {
+        Path romDir = getParams().getInput(LibraryAuditParams.ROM_DIRECTORY_SPEC);
+        Path datFile = getParams().getInput(LibraryAuditParams.DAT_SPEC);
+        Path out = getParams().getOutput(LibraryAuditParams.OUTPUT_SPEC);
+
+        List<RomFile> roms = findROMs(romDir);
+        progressConsumer.onDebugMessage("Found " + roms.size() + " ROMs under " + romDir);
+        RomDatabaseIndex db = (datFile == null) ? null : RomDatabaseIndex.forDatFile(datFile);
+        InspectionCache cache = InspectionCache.getDefault();
+
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        // Each ROM in flight holds at most a ROM-sized buffer, so this bounds memory use
+        int maxInFlight = parallelism * 2;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        AuditReport report = new AuditReport(out, roms.size(), progressConsumer);
+        try {
+            for (RomFile rom : roms) {
+                if (cancellation.isCancelled()) {
+                    break;
+                }
+                inFlight.acquire();
+                pool.execute(() -> {
+                    try {
+                        report.write(auditROM(rom, cache, db, cancellation));
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            // Wait for the remaining inspections to finish
+            inFlight.acquire(maxInFlight);
+        } finally {
+            pool.shutdownNow();
+            for (RomFile rom : roms) {
+                if (rom.archive != null) {
+                    rom.archive.close();
+                }
+            }
+            report.close();
+            try {
+                cache.save();
+            } catch (IOException e) {
+                progressConsumer.onDebugMessage("Could not save inspection cache: " + e.getMessage());
+            }
+        }
+        cancellation.throwIfCancelled();
+        if (report.writeError != null) {
+            throw report.writeError;
+        }
+        progressConsumer.onDebugMessage(String.format("Audited %d ROMs (%d from cache): %d with validation errors, %d unreadable",
+                roms.size(), report.cached, report.invalid, report.failed));
+        progressConsumer.onDebugMessage("Written report to " + out);
+    }
+
+    /**
+     * List the ROMs in the directory tree, including ROMs inside zip files, in path order.
+     */
+    private static List<RomFile> findROMs(Path dir) throws IOException {
+        List<RomFile> ret = new ArrayList<>();
+        List<Path> files;
+        try (Stream<Path> s = Files.walk(dir)) {
+            files = s.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (Path f : files) {
+            String name = f.getFileName().toString();
+            if (ROM_FILENAME_PATTERN.matcher(name).matches()) {
+                ret.add(new RomFile(f, null, null));
+            } else if (name.toLowerCase().endsWith(".zip")) {
+                try (ZipFile zip = new ZipFile(f.toFile())) {
+                    Archive archive = new Archive(f);
+                    for (ZipEntry e : Collections.list(zip.entries())) {
+                        if (!e.isDirectory() && ROM_FILENAME_PATTERN.matcher(e.getName()).matches()) {
+                            ret.add(new RomFile(Paths.get(f + "!/" + e.getName()), archive, e.getName()));
+                            archive.remaining++;
+                        }
+                    }
+                } catch (IOException e) {
+                    // Not a readable zip file, so no ROMs to audit in it
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static AuditRow auditROM(RomFile romFile, InspectionCache cache, RomDatabaseIndex db, CancellationToken cancellation) {
+        Path rom = romFile.path;
+        AuditRow row = new AuditRow(rom);
+        try {
+            BasicFileAttributes attrs = InputFiles.readAttributes(rom);
+            ZipFile zip = null;
+            ZipEntry entry = null;
+            if (romFile.archive != null) {
+                zip = romFile.archive.open();
+                entry = zip.getEntry(romFile.entryName);
+                if (entry == null) {
+                    throw new IOException("No such file in zip: " + rom);
+                }
+                row.size = entry.getSize();
+                if (row.size < 0) {
+                    throw new IOException("Size of zip entry not known: " + rom);
+                }
+            } else {
+                row.size = InputFiles.size(rom);
+            }
+            if (row.size > SMSRomInspector.MAX_ROM_SIZE) {
+                throw new IOException("File size exceeds maximum permitted ROM size");
+            }
+            InspectionResult result = cache.get(rom, attrs);
+            if (result != null) {
+                row.cached = true;
+            } else {
+                cancellation.throwIfCancelled();
+                SMSRomInspector ins = new SMSRomInspector(rom, SMSInspector.isGameGearROM(rom), row.size);
+                RomDigests digests;
+                if (zip != null) {
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        digests = RomHasher.hash(in, row.size, ins::update, cancellation);
+                    }
+                } else {
+                    digests = RomHasher.hash(rom, row.size, ins::update, cancellation);
+                }
+                ins.finish();
+                result = InspectionResult.of(ins, digests);
+                cache.put(rom, attrs, result);
+            }
+            row.result = result;
+            if (db != null) {
+                row.databaseMatch = db.lookup(row.size, result.getDigests().getCRC32(), result.getDigests().getSHA1());
+            }
+        } catch (Exception e) {
+            row.failure = (e.getMessage() != null) ? e.getMessage() : e.toString();
+        } finally {
+            if (romFile.archive != null) {
+                romFile.archive.release();
+            }
+        }
+        return row;
+    }
+
+    /**
+     * A ROM to audit: either a file on disk, or an entry in a zip file.
+     */
+    private static class RomFile {
+        final Path path;
+        final Archive archive;
+        final String entryName;
+
+        RomFile(Path path, Archive archive, String entryName) {
+            this.path = path;
+            this.archive = archive;
+            this.entryName = entryName;
+        }
+    }
+
+    /**
+     * A zip file shared by the audits of the ROMs in it. It is opened on first use, and
+     * closed once every ROM in it has been audited.
+     */
+    private static class Archive {
+        private final Path path;
+        private int remaining;
+        private ZipFile zip;
+
+        Archive(Path path) {
+            this.path = path;
+        }
+
+        synchronized ZipFile open() throws IOException {
+            if (zip == null) {
+                zip = new ZipFile(path.toFile());
+            }
+            return zip;
+        }
+
+        synchronized void release() {
+            if (--remaining == 0) {
+                close();
+            }
+        }
+
+        synchronized void close() {
+            if (zip != null) {
+                try {
+                    zip.close();
+                } catch (IOException e) {
+                    // Nothing was written to it
+                }
+                zip = null;
+            }
+        }
+    }
+
+    private static class AuditRow {
+        final Path file;
+        long size = -1;
+        boolean cached;
+        InspectionResult result;
+        String databaseMatch;
+        String failure;
+
+        AuditRow(Path file) {
+            this.file = file;
+        }
+
+        List<String> toFields() {
+            List<String> ret = new ArrayList<>(FIELDS.size());
+            ret.add(file.toString());
+            ret.add(size < 0 ? null : Long.toString(size));
+            if (result == null) {
+                ret.addAll(Collections.nCopies(8, null));
+            } else {
+                RomDigests d = result.getDigests();
+                ret.add(d.getMD5String());
+                ret.add(d.getSHA1String());
+                ret.add(d.getCRC32String());
+                ret.add(String.format("%04x", (int) result.getChecksumFromHeader()));
+                ret.add(String.format("%04x", (int) result.getCalculatedChecksum()));
+                int declSize = result.getDeclaredROMSize();
+                ret.add(declSize == -1 ? null : Integer.toString(declSize));
+                ret.add(result.getValidationErrors().stream()
+                        .map(SMSRomInspector.ValidationError::getCode).collect(Collectors.joining(";")));
+                ret.add(databaseMatch);
+            }
+            ret.add(failure);
+            return ret;
+        }
+    }
+
+    /**
+     * Writes rows as they arrive from the worker threads, and keeps count of the outcomes.
+     */
+    private static class AuditReport {
+        private final Writer writer;
+        private final CsvWriter csv;
+        private final JsonLinesWriter json;
+        private final int total;
+        private final ProgressConsumer progressConsumer;
+        private int written;
+        private int percentComplete;
+        int cached;
+        int invalid;
+        int failed;
+        IOException writeError;
+
+        AuditReport(Path out, int total, ProgressConsumer progressConsumer) throws IOException {
+            this.writer = Files.newBufferedWriter(out);
+            this.total = total;
+            this.progressConsumer = progressConsumer;
+            if (out.getFileName().toString().toLowerCase().endsWith(".jsonl")) {
+                csv = null;
+                json = new JsonLinesWriter(writer, FIELDS);
+            } else {
+                csv = new CsvWriter(writer);
+                json = null;
+                csv.writeRow(FIELDS);
+            }
+        }
+
+        synchronized void write(AuditRow row) {
+            if (row.cached) {
+                cached++;
+            }
+            if (row.failure != null) {
+                failed++;
+            } else if (!row.result.getValidationErrors().isEmpty()) {
+                invalid++;
+            }
+            try {
+                if (json != null) {
+                    json.writeRecord(row.toFields());
+                } else {
+                    csv.writeRow(row.toFields());
+                }
+            } catch (IOException e) {
+                if (writeError == null) {
+                    writeError = e;
+                }
+            }
+            written++;
+            int percent = written * 100 / total;
+            if (percent != percentComplete) {
+                percentComplete = percent;
+                progressConsumer.onProgress(percent);
+            }
+        }
+
+        synchronized void close() throws IOException {
+            writer.close();
+        }
+    }
+
+}
@@ -0,0 +1,380 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.inspect;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the ROMs listed in a No-Intro or TOSEC style DAT file, for identifying ROMs
+ * by their digests. The first time a DAT file is used, its entries are sorted by CRC32
+ * and written to an index file alongside it (or in the temporary directory if that
+ * location is not writable). The index file is then memory-mapped and binary-searched,
+ * so opening it is immediate and lookups create no objects until a match is found.
+ *
+ * <p>Both Logiqx XML DAT files and the older ClrMamePro text format are supported.</p>
+ */
+public final class RomDatabaseIndex {
+
+    private static final int MAGIC = 0x454d4458;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    // CRC32 (4), SHA-1 (20), size (4), name offset (4)
+    private static final int RECORD_SIZE = 32;
+    private static final byte[] NO_SHA1 = new byte[20];
+
+    private static final Map<Path, RomDatabaseIndex> OPEN_INDEXES = new ConcurrentHashMap<>();
+
+    private final long datSize;
+    private final long datModified;
+    private final ByteBuffer index;
+    private final int recordCount;
+    private final int namesOffset;
+
+    private RomDatabaseIndex(ByteBuffer index) throws IOException {
+        this.index = index;
+        if (index.capacity() < HEADER_SIZE || index.getInt(0) != MAGIC || index.getInt(4) != VERSION) {
+            throw new IOException("Not a ROM database index");
+        }
+        this.datSize = index.getLong(8);
+        this.datModified = index.getLong(16);
+        this.recordCount = index.getInt(24);
+        this.namesOffset = HEADER_SIZE + recordCount * RECORD_SIZE;
+        if (recordCount < 0 || namesOffset > index.capacity()) {
+            throw new IOException("Corrupt ROM database index");
+        }
+    }
+
+    /**
+     * Return the index for the given DAT file, building the index file if it does not
+     * exist or is older than the DAT file.
+     */
+    public static RomDatabaseIndex forDatFile(Path datFile) throws IOException {
+        Path key = datFile.toAbsolutePath().normalize();
+        long size = Files.size(key);
+        long modified = Files.getLastModifiedTime(key).toMillis();
+        RomDatabaseIndex ret = OPEN_INDEXES.get(key);
+        if (ret == null || ret.datSize != size || ret.datModified != modified) {
+            ret = openOrBuild(key, size, modified);
+            OPEN_INDEXES.put(key, ret);
+        }
+        return ret;
+    }
+
+    private static RomDatabaseIndex openOrBuild(Path datFile, long size, long modified) throws IOException {
+        Path indexFile = datFile.resolveSibling(datFile.getFileName() + ".idx");
+        if (!Files.isWritable(datFile.getParent()) && !Files.exists(indexFile)) {
+            indexFile = Paths.get(System.getProperty("java.io.tmpdir"),
+                    "emutil-" + Integer.toHexString(datFile.hashCode()) + ".idx");
+        }
+        if (Files.exists(indexFile)) {
+            try {
+                RomDatabaseIndex ret = map(indexFile);
+                if (ret.datSize == size && ret.datModified == modified) {
+                    return ret;
+                }
+            } catch (IOException e) {
+                // Unreadable or out of date: fall through and rebuild
+            }
+        }
+        buildIndex(datFile, size, modified, indexFile);
+        return map(indexFile);
+    }
+
+    private static RomDatabaseIndex map(Path indexFile) throws IOException {
+        try (FileChannel ch = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("ROM database index too large");
+            }
+            return new RomDatabaseIndex(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * Look up a ROM by its size and digests, returning the name of the matching game
+     * or null if there is none. Entries without a SHA-1 in the DAT file are matched on
+     * CRC32 and size alone.
+     */
+    public String lookup(long romSize, long crc32, byte[] sha1) {
+        int crc = (int) crc32;
+        int lo = 0;
+        int hi = recordCount - 1;
+        // Find the first record with this CRC
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Integer.compareUnsigned(recordCRC(mid), crc) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        for (int i = lo; i < recordCount && recordCRC(i) == crc; i++) {
+            int base = HEADER_SIZE + i * RECORD_SIZE;
+            if (Integer.toUnsignedLong(index.getInt(base + 24)) != romSize) {
+                continue;
+            }
+            if (sha1Matches(base + 4, sha1) || sha1Matches(base + 4, NO_SHA1)) {
+                return readName(index.getInt(base + 28));
+            }
+        }
+        return null;
+    }
+
+    private int recordCRC(int i) {
+        return index.getInt(HEADER_SIZE + i * RECORD_SIZE);
+    }
+
+    private boolean sha1Matches(int pos, byte[] sha1) {
+        for (int i = 0; i < 20; i++) {
+            if (index.get(pos + i) != sha1[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readName(int offset) {
+        int pos = namesOffset + offset;
+        int len = index.getShort(pos) & 0xffff;
+        byte[] b = new byte[len];
+        index.get(pos + 2, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void buildIndex(Path datFile, long size, long modified, Path indexFile) throws IOException {
+        List<Entry> entries = parseDat(datFile);
+        entries.sort(Comparator.comparingLong((Entry e) -> e.crc32).thenComparing((a, b) -> Arrays.compare(a.sha1, b.sha1)));
+
+        Path tmp = Files.createTempFile(indexFile.getParent(), "romdb", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(size);
+                out.writeLong(modified);
+                out.writeInt(entries.size());
+                out.write(new byte[HEADER_SIZE - 28]);
+                // Entries for the same game share one copy of its name
+                Map<String, Integer> nameOffsets = new HashMap<>();
+                List<byte[]> names = new ArrayList<>();
+                int namesLen = 0;
+                for (Entry e : entries) {
+                    Integer off = nameOffsets.get(e.name);
+                    if (off == null) {
+                        byte[] b = e.name.getBytes(StandardCharsets.UTF_8);
+                        if (b.length > 0xffff) {
+                            b = Arrays.copyOf(b, 0xffff);
+                        }
+                        off = namesLen;
+                        nameOffsets.put(e.name, off);
+                        names.add(b);
+                        namesLen += 2 + b.length;
+                    }
+                    out.writeInt((int) e.crc32);
+                    out.write(e.sha1);
+                    out.writeInt((int) e.size);
+                    out.writeInt(off);
+                }
+                for (byte[] b : names) {
+                    out.writeShort(b.length);
+                    out.write(b);
+                }
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static List<Entry> parseDat(Path datFile) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(datFile))) {
+            in.mark(1024);
+            int c;
+            do {
+                c = in.read();
+            } while (c != -1 && Character.isWhitespace(c));
+            in.reset();
+            return (c == '<') ? parseXmlDat(in) : parseClrMameProDat(in);
+        }
+    }
+
+    private static List<Entry> parseXmlDat(InputStream in) throws IOException {
+        List<Entry> ret = new ArrayList<>();
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // DAT files declare a DTD on the web, which we don't want to fetch
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader r = factory.createXMLStreamReader(in);
+            String gameName = null;
+            while (r.hasNext()) {
+                if (r.next() != XMLStreamConstants.START_ELEMENT)
+                    continue;
+                String element = r.getLocalName();
+                if (element.equals("game") || element.equals("machine")) {
+                    gameName = r.getAttributeValue(null, "name");
+                } else if (element.equals("rom")) {
+                    addEntry(ret, gameName != null ? gameName : r.getAttributeValue(null, "name"),
+                            r.getAttributeValue(null, "size"), r.getAttributeValue(null, "crc"),
+                            r.getAttributeValue(null, "sha1"));
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid DAT file: " + e.getMessage(), e);
+        }
+        return ret;
+    }
+
+    /**
+     * Parse the ClrMamePro format, made up of blocks such as
+     * {@code game ( name "..." rom ( name "..." size 1234 crc abcd1234 sha1 ... ) )}.
+     */
+    private static List<Entry> parseClrMameProDat(InputStream in) throws IOException {
+        List<String> tokens = tokenize(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        List<Entry> ret = new ArrayList<>();
+        String gameName = null;
+        int depth = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            String tok = tokens.get(i);
+            if (tok.equals("(")) {
+                depth++;
+            } else if (tok.equals(")")) {
+                depth--;
+            } else if (depth == 1 && tok.equals("name") && i + 1 < tokens.size()) {
+                gameName = tokens.get(++i);
+            } else if (depth == 1 && tok.equals("rom") && i + 1 < tokens.size() && tokens.get(i + 1).equals("(")) {
+                String size = null, crc = null, sha1 = null, romName = null;
+                i += 2;
+                // Key-value pairs up to the closing bracket of the rom block
+                for (; i + 1 < tokens.size() && !tokens.get(i).equals(")"); i += 2) {
+                    String key = tokens.get(i);
+                    String value = tokens.get(i + 1);
+                    if (key.equals("name")) {
+                        romName = value;
+                    } else if (key.equals("size")) {
+                        size = value;
+                    } else if (key.equals("crc")) {
+                        crc = value;
+                    } else if (key.equals("sha1")) {
+                        sha1 = value;
+                    }
+                }
+                addEntry(ret, gameName != null ? gameName : romName, size, crc, sha1);
+            }
+        }
+        return ret;
+    }
+
+    private static List<String> tokenize(String s) {
+        List<String> ret = new ArrayList<>();
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                ret.add(String.valueOf(c));
+                i++;
+            } else if (c == '"') {
+                int end = s.indexOf('"', i + 1);
+                if (end < 0) {
+                    end = s.length();
+                }
+                ret.add(s.substring(i + 1, end));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < s.length() && !Character.isWhitespace(s.charAt(i)) && s.charAt(i) != '(' && s.charAt(i) != ')') {
+                    i++;
+                }
+                ret.add(s.substring(start, i));
+            }
+        }
+        return ret;
+    }
+
+    private static void addEntry(List<Entry> entries, String name, String size, String crc, String sha1) {
+        if (name == null || size == null || crc == null) {
+            return;
+        }
+        try {
+            byte[] sha1Bytes = NO_SHA1;
+            if (sha1 != null && sha1.length() == 40) {
+                sha1Bytes = new byte[20];
+                for (int i = 0; i < 20; i++) {
+                    sha1Bytes[i] = (byte) Integer.parseInt(sha1.substring(i * 2, i * 2 + 2), 16);
+                }
+            }
+            entries.add(new Entry(name, Long.parseLong(size), Long.parseLong(crc, 16), sha1Bytes));
+        } catch (NumberFormatException e) {
+            // Skip malformed entries rather than rejecting the whole file
+        }
+    }
+
+    private static class Entry {
+        final String name;
+        final long size;
+        final long crc32;
+        final byte[] sha1;
+
+        Entry(String name, long size, long crc32, byte[] sha1) {
+            this.name = name;
+            this.size = size;
+            this.crc32 = crc32;
+            this.sha1 = sha1;
+        }
+    }
+
+}
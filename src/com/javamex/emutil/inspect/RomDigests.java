@@ -0,0 +1,87 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.inspect;
+
+/**
+ * The digests of a ROM file, as calculated by {@link RomHasher}.
+ */
+public class RomDigests {
+
+    private final byte[] md5;
+    private final byte[] sha1;
+    private final byte[] sha256;
+    private final long crc32;
+
+    public RomDigests(byte[] md5, byte[] sha1, byte[] sha256, long crc32) {
+        this.md5 = md5;
+        this.sha1 = sha1;
+        this.sha256 = sha256;
+        this.crc32 = crc32;
+    }
+
+    public byte[] getMD5() {
+        return md5.clone();
+    }
+
+    public byte[] getSHA1() {
+        return sha1.clone();
+    }
+
+    public byte[] getSHA256() {
+        return sha256.clone();
+    }
+
+    public long getCRC32() {
+        return crc32;
+    }
+
+    public String getMD5String() {
+        return toHex(md5);
+    }
+
+    public String getSHA1String() {
+        return toHex(sha1);
+    }
+
+    public String getSHA256String() {
+        return toHex(sha256);
+    }
+
+    public String getCRC32String() {
+        return String.format("%08x", crc32);
+    }
+
+    private static String toHex(byte[] dig) {
+        StringBuilder sb = new StringBuilder(dig.length * 2);
+        for (byte bt : dig) {
+            sb.append(Character.forDigit((bt >> 4) & 0xf, 16)).append(Character.forDigit(bt & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+}
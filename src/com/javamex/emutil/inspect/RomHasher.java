@@ -0,0 +1,226 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.inspect;
+
+import com.javamex.emutil.CancellationToken;
+import com.javamex.emutil.InputFiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Calculates MD5, SHA-1, SHA-256 and CRC32 digests of a ROM in a single pass over the
+ * file, a chunk at a time, optionally feeding the same chunks to another consumer such
+ * as an {@link SMSRomInspector}. For larger files, each consumer runs on its own thread,
+ * taking chunks from a small shared ring of buffers that the reading thread refills
+ * once every consumer has finished with them.
+ */
+public final class RomHasher {
+
+    /**
+     * Consumer of successive chunks of a file.
+     */
+    @FunctionalInterface
+    public interface ChunkSink {
+        void update(byte[] data, int off, int len);
+    }
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int RING_SIZE = 4;
+    private static final long PARALLEL_THRESHOLD = 4 * 1024 * 1024;
+
+    private static final ExecutorService DIGEST_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "ROM digest");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private RomHasher() {
+    }
+
+    /**
+     * Read the given file once, returning its digests and passing each chunk to
+     * {@code extraSink} if it is non-null.
+     */
+    public static RomDigests hash(Path file, long size, ChunkSink extraSink, CancellationToken cancellation) throws IOException {
+        try (InputStream in = InputFiles.newInputStream(file)) {
+            return hash(in, size, extraSink, cancellation);
+        }
+    }
+
+    /**
+     * Read the given stream of {@code size} bytes to the end, returning its digests and
+     * passing each chunk to {@code extraSink} if it is non-null. The stream is not closed.
+     */
+    public static RomDigests hash(InputStream in, long size, ChunkSink extraSink, CancellationToken cancellation) throws IOException {
+        MessageDigest md5 = getDigest("MD5");
+        MessageDigest sha1 = getDigest("SHA-1");
+        MessageDigest sha256 = getDigest("SHA-256");
+        CRC32 crc = new CRC32();
+
+        List<ChunkSink> sinks = new ArrayList<>(5);
+        sinks.add(md5::update);
+        sinks.add(sha1::update);
+        sinks.add(sha256::update);
+        sinks.add(crc::update);
+        if (extraSink != null) {
+            sinks.add(extraSink);
+        }
+
+        if (size >= PARALLEL_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1) {
+            hashParallel(in, sinks, cancellation);
+        } else {
+            hashSerial(in, sinks, cancellation);
+        }
+        return new RomDigests(md5.digest(), sha1.digest(), sha256.digest(), crc.getValue());
+    }
+
+    private static MessageDigest getDigest(String scheme) {
+        try {
+            return MessageDigest.getInstance(scheme);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support these
+            throw new IllegalStateException("Digest not available: " + scheme, e);
+        }
+    }
+
+    private static void hashSerial(InputStream in, List<ChunkSink> sinks, CancellationToken cancellation) throws IOException {
+        byte[] buf = new byte[CHUNK_SIZE];
+        int n;
+        while ((n = in.readNBytes(buf, 0, buf.length)) > 0) {
+            cancellation.throwIfCancelled();
+            for (ChunkSink sink : sinks) {
+                sink.update(buf, 0, n);
+            }
+        }
+    }
+
+    private static void hashParallel(InputStream in, List<ChunkSink> sinks, CancellationToken cancellation) throws IOException {
+        BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(RING_SIZE);
+        for (int i = 0; i < RING_SIZE; i++) {
+            free.add(new Chunk(new byte[CHUNK_SIZE]));
+        }
+        List<BlockingQueue<Chunk>> queues = new ArrayList<>(sinks.size());
+        List<Future<?>> consumers = new ArrayList<>(sinks.size());
+        for (ChunkSink sink : sinks) {
+            // Room for every ring buffer plus the end marker, so the reader never blocks on a put
+            BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(RING_SIZE + 1);
+            queues.add(queue);
+            consumers.add(DIGEST_EXECUTOR.submit(() -> {
+                consume(sink, queue, free);
+                return null;
+            }));
+        }
+
+        boolean interrupted = false;
+        try {
+            int n;
+            do {
+                cancellation.throwIfCancelled();
+                Chunk chunk = free.take();
+                n = in.readNBytes(chunk.data, 0, chunk.data.length);
+                if (n > 0) {
+                    chunk.len = n;
+                    chunk.pending.set(queues.size());
+                    for (BlockingQueue<Chunk> queue : queues) {
+                        queue.put(chunk);
+                    }
+                } else {
+                    free.put(chunk);
+                }
+            } while (n > 0);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            for (BlockingQueue<Chunk> queue : queues) {
+                queue.add(Chunk.END);
+            }
+        }
+
+        try {
+            for (Future<?> f : consumers) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } catch (ExecutionException e) {
+            throw new IOException("Error calculating digest", e.getCause());
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calculating digests");
+        }
+    }
+
+    private static void consume(ChunkSink sink, BlockingQueue<Chunk> queue, BlockingQueue<Chunk> free) throws InterruptedException {
+        RuntimeException failure = null;
+        Chunk chunk;
+        while ((chunk = queue.take()) != Chunk.END) {
+            // After a failure, keep returning buffers to the ring so that the reader can finish
+            if (failure == null) {
+                try {
+                    sink.update(chunk.data, 0, chunk.len);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+            if (chunk.pending.decrementAndGet() == 0) {
+                free.put(chunk);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static class Chunk {
+        static final Chunk END = new Chunk(new byte[0]);
+
+        final byte[] data;
+        final AtomicInteger pending = new AtomicInteger();
+        int len;
+
+        Chunk(byte[] data) {
+            this.data = data;
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.inspect;
+
+import com.javamex.emutil.CancellationToken;
+import com.javamex.emutil.ProgressConsumer;
+import com.javamex.emutil.UtilFunction;
+import com.javamex.emutil.UtilFunctionType;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Corrects the header checksum of an SMS/Game Gear ROM over the size its header declares.
+ * Optionally, the size code is also corrected where the file is of a standard size that the
+ * header does not declare. Only the header itself is written,
+ * through a memory mapping of those 16 bytes, so the rest of the file is left untouched.
+ */
+public class SMSChecksumRepairer extends UtilFunction<SMSChecksumRepairParams> {
+
+    public SMSChecksumRepairer(SMSChecksumRepairParams params) {
+        super(UtilFunctionType.REPAIR_SMS_CHECKSUM, params);
+    }
+
+    @Override
+    public void runFunction(ProgressConsumer progressConsumer, CancellationToken cancellation) {
+        try {
+            Path romPath = getParams().getInput(SMSChecksumRepairParams.INPUT_SPEC);
+            SMSRomInspector ins = new SMSRomInspector(romPath, false, (byte[]) null);
+            ins.readHeaderInfo();
+            cancellation.throwIfCancelled();
+
+            int sizeAndRegion = ins.getSizeAndRegionCode();
+            int sizeCode = sizeAndRegion & 0xf;
+            int actualSizeCode = SMSRomInspector.getSizeCode(ins.getActualROMSize());
+            boolean repairSizeCode = getParams().isOptionSet(SMSChecksumRepairParams.REPAIR_SIZE_CODE_OPTION);
+            if (repairSizeCode && actualSizeCode != -1 && actualSizeCode != sizeCode) {
+                progressConsumer.onDebugMessage(String.format("Size code %x declares %d bytes; setting to %x for %d bytes",
+                        sizeCode, SMSRomInspector.getStandardROMSize(sizeCode), actualSizeCode, ins.getActualROMSize()));
+                sizeCode = actualSizeCode;
+            } else if (SMSRomInspector.getStandardROMSize(sizeCode) == -1) {
+                throw new IOException(String.format("Unknown ROM size code %x", sizeCode));
+            }
+            int newSizeAndRegion = (sizeAndRegion & 0xf0) | sizeCode;
+            char newChecksum = ins.getCalculatedChecksum(sizeCode);
+
+            progressConsumer.onDebugMessage("Declared checksum: " + Integer.toHexString(ins.getChecksumFromHeader()));
+            progressConsumer.onDebugMessage("Actual checksum: " + Integer.toHexString(newChecksum));
+            if (newChecksum == ins.getChecksumFromHeader() && newSizeAndRegion == sizeAndRegion) {
+                progressConsumer.onDebugMessage("Header is already correct; ROM not modified");
+                return;
+            }
+
+            try (FileChannel ch = FileChannel.open(romPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                if (ch.size() != ins.getActualROMSize()) {
+                    throw new IOException("ROM file changed size while being inspected");
+                }
+                MappedByteBuffer header = ch.map(FileChannel.MapMode.READ_WRITE, ins.getHeaderOffset(), 16);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                header.putChar(0xa, newChecksum);
+                if (newSizeAndRegion != sizeAndRegion) {
+                    header.put(0xf, (byte) newSizeAndRegion);
+                }
+                header.force();
+            }
+            progressConsumer.onDebugMessage(String.format("Header at 0x%04x updated", ins.getHeaderOffset()));
+        } catch (Throwable t) {
+            progressConsumer.onFatalError(t);
+        }
+    }
+
+}
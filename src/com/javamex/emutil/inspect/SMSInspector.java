@@ -26,17 +26,17 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 package com.javamex.emutil.inspect;
 
+import com.javamex.emutil.CancellationToken;
+import com.javamex.emutil.InputFiles;
 import com.javamex.emutil.ProgressConsumer;
 import com.javamex.emutil.UtilFunction;
 import com.javamex.emutil.UtilFunctionType;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.MessageDigest;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 public class SMSInspector extends UtilFunction<SMSInspectorParams> {
     private static final long MAX_ROM_SIZE = 1024 * 1024 * 32;
@@ -47,58 +47,77 @@ public class SMSInspector extends UtilFunction<SMSInspectorParams> {
     }
 
     @Override
-    public void runFunction(ProgressConsumer progressConsumer) {
+    public void runFunction(ProgressConsumer progressConsumer, CancellationToken cancellation) {
         try {
             Path inputROM = getParams().getInput(SMSInspectorParams.INPUT_SPEC);
-            long size = Files.size(inputROM);
+            BasicFileAttributes attrs = InputFiles.readAttributes(inputROM);
+            long size = InputFiles.size(inputROM);
             if (size > MAX_ROM_SIZE) {
                 throw new IOException("Input file exceeds permitted ROM size");
             }
 
             progressConsumer.onDebugMessage("Inspecting: " + inputROM + " (" + size + " bytes)");
 
-            // For now, assume we can just load all ROM bytes into memory - we're not
-            // catering for ROMs that are so big!
-            byte[] romBytes = Files.readAllBytes(inputROM);
-            Stream.of("MD5", "SHA-1").forEach(scheme -> {
-                try {
-                    String digest = getDigestString(romBytes, scheme);
-                    progressConsumer.onDebugMessage("ROM hash (" + scheme + "): " + digest);
-                } catch (Exception e) {
-                    progressConsumer.onDebugMessage("Scheme not available: " + scheme);
-                    e.printStackTrace();
-                }
-            });
-
-            SMSRomInspector ins = new SMSRomInspector(inputROM, isGameGearROM(inputROM), romBytes);
-            ins.readHeaderInfo();
-            progressConsumer.onDebugMessage("Declared checksum: " + Integer.toHexString(ins.getChecksumFromHeader()));
-            progressConsumer.onDebugMessage("Actual checksum: " + Integer.toHexString(ins.getCalculatedChecksum()));
-            int declSize = ins.getDeclaredROMSize();
+            InspectionCache cache = InspectionCache.getDefault();
+            InspectionResult result = cache.get(inputROM, attrs);
+            SMSRomInspector ins = null;
+            RomDigests digests;
+            if (result != null) {
+                progressConsumer.onDebugMessage("Using cached results (file unchanged since last inspection)");
+                digests = result.getDigests();
+            } else {
+                // Digests and the header checksum are all calculated in one pass over the file
+                ins = new SMSRomInspector(inputROM, isGameGearROM(inputROM), size);
+                digests = RomHasher.hash(inputROM, size, ins::update, cancellation);
+            }
+            progressConsumer.onDebugMessage("ROM hash (MD5): " + digests.getMD5String());
+            progressConsumer.onDebugMessage("ROM hash (SHA-1): " + digests.getSHA1String());
+            progressConsumer.onDebugMessage("ROM hash (SHA-256): " + digests.getSHA256String());
+            progressConsumer.onDebugMessage("ROM hash (CRC32): " + digests.getCRC32String());
+
+            Path datFile = getParams().getInput(SMSInspectorParams.DAT_SPEC);
+            if (datFile != null) {
+                RomDatabaseIndex db = RomDatabaseIndex.forDatFile(datFile);
+                String name = db.lookup(size, digests.getCRC32(), digests.getSHA1());
+                progressConsumer.onDebugMessage((name != null) ?
+                        "ROM database match: " + name :
+                        "No match among " + db.size() + " ROM database entries");
+            }
+
+            if (result == null) {
+                ins.finish();
+                result = InspectionResult.of(ins, digests);
+                cache.put(inputROM, attrs, result);
+            }
+            progressConsumer.onDebugMessage("Declared checksum: " + Integer.toHexString(result.getChecksumFromHeader()));
+            progressConsumer.onDebugMessage("Actual checksum: " + Integer.toHexString(result.getCalculatedChecksum()));
+            int declSize = result.getDeclaredROMSize();
             if (declSize == -1) {
                 progressConsumer.onDebugMessage("Unknown ROM size specifier");
             } else {
                 progressConsumer.onDebugMessage(String.format("Declared size: %d bytes (%d K)",
                         declSize, declSize / 1024));
             }
+            if (result.hasProblems()) {
+                reportChecksumTriage(result, progressConsumer);
+            }
         } catch (Throwable t) {
             progressConsumer.onFatalError(t);
         }
     }
 
-    private static boolean isGameGearROM(Path p) {
-        Matcher m = GAME_GEAR_FILENAME_PATTERN.matcher(p.getFileName().toString());
-        return m.matches();
+    private static void reportChecksumTriage(InspectionResult result, ProgressConsumer progressConsumer) {
+        progressConsumer.onDebugMessage("Checksums by size code and header location (* = matches header):");
+        for (SMSRomInspector.ChecksumCandidate c : result.getChecksumCandidates()) {
+            progressConsumer.onDebugMessage(String.format("  Header 0x%04x, size code %x (%d K): %04x%s",
+                    c.getHeaderOffset(), c.getSizeCode(), c.getROMSize() / 1024,
+                    (int) c.getCalculatedChecksum(), c.isMatch() ? " *" : ""));
+        }
     }
 
-    private static String getDigestString(byte[] b, String scheme) throws Exception {
-        MessageDigest md = MessageDigest.getInstance(scheme);
-        byte[] dig = md.digest(b);
-        StringBuilder sb = new StringBuilder(dig.length * 2);
-        for (byte bt : dig) {
-            sb.append(String.format("%02x", bt & 0xff));
-        }
-        return sb.toString();
+    static boolean isGameGearROM(Path p) {
+        Matcher m = GAME_GEAR_FILENAME_PATTERN.matcher(InputFiles.getFileName(p));
+        return m.matches();
     }
 
 }
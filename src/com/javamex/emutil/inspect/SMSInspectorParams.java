@@ -31,6 +31,7 @@ import com.javamex.emutil.FileSpec;
 import com.javamex.emutil.FileType;
 import com.javamex.emutil.UtilFunctionParams;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -40,10 +41,15 @@ public class SMSInspectorParams extends UtilFunctionParams {
     protected static final FileSpec INPUT_SPEC =
             new FileSpec("InputRom", FileType.ROM_FILE, "SMS/Game Gear ROM",
                     Pattern.compile(".+\\.(?:sms|rom|gg)", Pattern.CASE_INSENSITIVE), "SMS/Game Gear ROM (*.sms, *.rom, *.gg)", false);
+    protected static final FileSpec DAT_SPEC =
+            new FileSpec("RomDatabase", FileType.DAT_FILE, "ROM database (optional)",
+                    Pattern.compile(".+\\.(?:dat|xml)", Pattern.CASE_INSENSITIVE), "No-Intro/TOSEC DAT file (*.dat, *.xml)", false, true);
+
+    private static final List<FileSpec> INPUT_SPECS = Collections.unmodifiableList(Arrays.asList(INPUT_SPEC, DAT_SPEC));
 
     @Override
     public List<FileSpec> getInputSpecs() {
-        return Collections.singletonList(INPUT_SPEC);
+        return INPUT_SPECS;
     }
 
     @Override
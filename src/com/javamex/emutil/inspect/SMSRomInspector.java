@@ -27,17 +27,22 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.javamex.emutil.inspect;
 
+import com.javamex.emutil.InputFiles;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.TreeSet;
 
 public class SMSRomInspector {
 
-    private static final long MAX_ROM_SIZE = 1024 * 1024;
+    static final long MAX_ROM_SIZE = 1024 * 1024;
+    private static final int[] HEADER_OFFSETS = {0x1ff0, 0x3ff0, 0x7ff0};
+    private static final int[] SIZE_CODES = {0xa, 0xb, 0xc, 0xd, 0xe, 0xf, 0, 1, 2};
     private final Path romPath;
     private int actualROMSize;
     private int headerOffset;
@@ -46,6 +51,16 @@ public class SMSRomInspector {
     private char specifiedChecksum;
     private final boolean expectedGameGear;
     private final byte[] romBytes;
+    private final byte[][] candidateHeaders = new byte[HEADER_OFFSETS.length][16];
+    private byte[] headerBytes;
+    private long streamSize;
+    private long streamPos;
+    private char runningChecksum;
+    // Running sums are recorded at every offset where some checksum range can begin or end,
+    // so that the checksum for any size code and header location is then an O(1) lookup
+    private long[] boundaries;
+    private char[] prefixSums;
+    private int nextBoundary;
 
     public enum ValidationError {
         CHECKSUM_MISMATCH("CKS", "ROM checksum error"),
@@ -73,6 +88,16 @@ public class SMSRomInspector {
         this.romBytes = romBytes;
     }
 
+    /**
+     * Create an inspector to be fed the ROM's contents a chunk at a time through
+     * {@link #update}, followed by a call to {@link #finish}, so that the header
+     * checksum can be calculated in the same pass as other digests.
+     */
+    public SMSRomInspector(Path romPath, boolean gameGear, long romSize) {
+        this(romPath, gameGear, (byte[]) null);
+        startStream(romSize);
+    }
+
     public char getChecksumFromHeader() {
         return this.specifiedChecksum;
     }
@@ -93,10 +118,39 @@ public class SMSRomInspector {
         return this.localeSizeCode;
     }
 
+    public int getActualROMSize() {
+        return this.actualROMSize;
+    }
+
+    public int getHeaderOffset() {
+        return this.headerOffset;
+    }
+
+    /**
+     * Calculate the checksum that the header should hold if it declared the given size code,
+     * counting only as far as the end of the file if the code declares a larger ROM.
+     */
+    public char getCalculatedChecksum(int sizeCode) {
+        int size = getStandardROMSize(sizeCode);
+        if (size <= 0) {
+            throw new IllegalArgumentException("Unknown ROM size code: " + sizeCode);
+        }
+        return checksumFor(headerOffset, Math.min(size, actualROMSize));
+    }
+
+    public boolean isExpectedGameGear() {
+        return this.expectedGameGear;
+    }
+
     public List<ValidationError> getValidationErrors() {
+        return getValidationErrors(expectedGameGear, hasChecksumMatch(), actualROMSize, localeSizeCode);
+    }
+
+    static List<ValidationError> getValidationErrors(boolean gameGear, boolean checksumMatch,
+                                                     int actualROMSize, int localeSizeCode) {
         List<ValidationError> ret = new ArrayList<>();
-        if (expectedGameGear) {
-            if (!hasChecksumMatch()) {
+        if (gameGear) {
+            if (!checksumMatch) {
                 ret.add(ValidationError.CHECKSUM_MISMATCH);
             }
         }
@@ -107,49 +161,213 @@ public class SMSRomInspector {
     }
 
     public void readHeaderInfo() throws IOException {
-        long fSize = Files.size(romPath);
+        long fSize = (romBytes == null) ? InputFiles.size(romPath) : romBytes.length;
         if (fSize > MAX_ROM_SIZE) {
             throw new IOException("Files size exceeds maximum permitted ROM size");
         }
-        actualROMSize = (int) fSize;
-
-        byte[] bytes = (romBytes == null) ? Files.readAllBytes(romPath) : romBytes;
-        int headerOffset;
+        byte[] bytes = (romBytes == null) ? InputFiles.readAllBytes(romPath) : romBytes;
+        startStream(bytes.length);
+        update(bytes, 0, bytes.length);
+        finish();
+    }
 
-        if (bytes.length == 8192) {
+    private void startStream(long romSize) {
+        this.streamSize = romSize;
+        this.streamPos = 0;
+        this.runningChecksum = 0;
+        this.nextBoundary = 0;
+        if (romSize == 8192) {
             headerOffset = 0x1ff0;
-        } else if (bytes.length == 16384) {
+        } else if (romSize == 16384) {
             headerOffset = 0x3ff0;
         } else {
             headerOffset = 0x7ff0;
         }
+        for (int i = 0; i < HEADER_OFFSETS.length; i++) {
+            if (HEADER_OFFSETS[i] == headerOffset) {
+                headerBytes = candidateHeaders[i];
+            }
+        }
 
-        ByteBuffer bb = ByteBuffer.wrap(bytes);
-        bb.order(ByteOrder.LITTLE_ENDIAN);
-        specifiedChecksum = bb.getChar(headerOffset + 0xA);
-        localeSizeCode = bb.get(headerOffset + 0xf) & 0xff;
+        TreeSet<Long> bounds = new TreeSet<>();
+        for (int h : HEADER_OFFSETS) {
+            bounds.add((long) h);
+            bounds.add((long) h + 16);
+        }
+        for (int code : SIZE_CODES) {
+            bounds.add((long) getStandardROMSize(code));
+        }
+        bounds.add(romSize);
+        bounds.removeIf(b -> b > romSize || b == 0);
+        boundaries = new long[bounds.size()];
+        int n = 0;
+        for (long b : bounds) {
+            boundaries[n++] = b;
+        }
+        prefixSums = new char[boundaries.length];
+    }
+
+    /**
+     * Feed the next chunk of the ROM. Chunks must be passed in order, and may be of any size.
+     */
+    public void update(byte[] data, int off, int len) {
+        long start = streamPos;
+        long end = start + len;
 
-        int totalRomSize = getStandardROMSize(localeSizeCode);
-        if (totalRomSize > 0) {
-            char checksum = 0;
+        //See https://www.smspower.org/Development/BIOSes
 
-            //See https://www.smspower.org/Development/BIOSes
+        // Keep the 16 bytes at each place a header may be found
+        for (int i = 0; i < HEADER_OFFSETS.length; i++) {
+            int hdrStart = HEADER_OFFSETS[i];
+            int hdrEnd = hdrStart + 16;
+            if (start < hdrEnd && end > hdrStart) {
+                int from = (int) Math.max(start, hdrStart);
+                int to = (int) Math.min(end, hdrEnd);
+                System.arraycopy(data, off + (int) (from - start), candidateHeaders[i], from - hdrStart, to - from);
+            }
+        }
 
-            // Checksum includes bytes up to the header
-            for (int i = 0; i < headerOffset; i ++) {
-                char word = (char) (bb.get(i) & 0xff);
-                checksum += word;
+        while (streamPos < end) {
+            long to = end;
+            if (nextBoundary < boundaries.length && boundaries[nextBoundary] < to) {
+                to = boundaries[nextBoundary];
             }
+            runningChecksum += sumBytes(data, off + (int) (streamPos - start), (int) (to - streamPos));
+            streamPos = to;
+            if (nextBoundary < boundaries.length && boundaries[nextBoundary] == to) {
+                prefixSums[nextBoundary++] = runningChecksum;
+            }
+        }
+    }
+
+    /**
+     * Complete streaming inspection, once the whole ROM has been passed to {@link #update}.
+     */
+    public void finish() throws IOException {
+        if (streamSize > MAX_ROM_SIZE) {
+            throw new IOException("Files size exceeds maximum permitted ROM size");
+        }
+        if (streamPos != streamSize) {
+            throw new IOException("Expected " + streamSize + " bytes of ROM data but got " + streamPos);
+        }
+        if (streamSize < headerOffset + 16) {
+            throw new IOException("ROM is too small to contain a header");
+        }
+        actualROMSize = (int) streamSize;
+        specifiedChecksum = getHeaderChecksum(headerBytes);
+        localeSizeCode = headerBytes[0xf] & 0xff;
+        int declaredSize = getStandardROMSize(localeSizeCode);
+        if (declaredSize > 0) {
+            this.calculatedChecksum = checksumFor(headerOffset, Math.min(declaredSize, streamSize));
+        }
+    }
 
-            if (totalRomSize > (headerOffset + 16)) {
-                for (int i = headerOffset+16; i < totalRomSize; i++) {
-                    char word = (char) (bb.get(i) & 0xff);
-                    checksum += word;
+    /**
+     * Report the checksum that would apply for every standard size code with the header at
+     * each of its possible locations, for triaging bad dumps and hacked headers. Combinations
+     * needing more bytes than the ROM has are omitted. Only available after {@link #finish}.
+     */
+    public List<ChecksumCandidate> getChecksumCandidates() {
+        List<ChecksumCandidate> ret = new ArrayList<>();
+        for (int i = 0; i < HEADER_OFFSETS.length; i++) {
+            int hdrOffset = HEADER_OFFSETS[i];
+            if (hdrOffset + 16 > actualROMSize) {
+                continue;
+            }
+            char declared = getHeaderChecksum(candidateHeaders[i]);
+            for (int code : SIZE_CODES) {
+                int size = getStandardROMSize(code);
+                if (size <= actualROMSize) {
+                    ret.add(new ChecksumCandidate(hdrOffset, code, size, declared, checksumFor(hdrOffset, size)));
                 }
             }
+        }
+        return ret;
+    }
+
+    private static char getHeaderChecksum(byte[] header) {
+        ByteBuffer bb = ByteBuffer.wrap(header);
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        return bb.getChar(0xA);
+    }
+
+    /**
+     * The checksum covers bytes up to the header and, for ROMs larger than this,
+     * everything after the header up to the ROM size.
+     */
+    private char checksumFor(int hdrOffset, long romSize) {
+        char sum = prefixSumAt(hdrOffset);
+        long hdrEnd = hdrOffset + 16;
+        if (romSize > hdrEnd) {
+            sum += (char) (prefixSumAt(romSize) - prefixSumAt(hdrEnd));
+        }
+        return sum;
+    }
+
+    private char prefixSumAt(long pos) {
+        int idx = Arrays.binarySearch(boundaries, pos);
+        if (idx < 0) {
+            throw new IllegalArgumentException("No checksum boundary at " + pos);
+        }
+        return prefixSums[idx];
+    }
+
+    public static class ChecksumCandidate {
+        private final int headerOffset;
+        private final int sizeCode;
+        private final int romSize;
+        private final char checksumFromHeader;
+        private final char calculatedChecksum;
+
+        ChecksumCandidate(int headerOffset, int sizeCode, int romSize,
+                          char checksumFromHeader, char calculatedChecksum) {
+            this.headerOffset = headerOffset;
+            this.sizeCode = sizeCode;
+            this.romSize = romSize;
+            this.checksumFromHeader = checksumFromHeader;
+            this.calculatedChecksum = calculatedChecksum;
+        }
+
+        public int getHeaderOffset() {
+            return headerOffset;
+        }
+
+        public int getSizeCode() {
+            return sizeCode;
+        }
+
+        public int getROMSize() {
+            return romSize;
+        }
+
+        public char getChecksumFromHeader() {
+            return checksumFromHeader;
+        }
 
-            this.calculatedChecksum = checksum;
+        public char getCalculatedChecksum() {
+            return calculatedChecksum;
+        }
+
+        public boolean isMatch() {
+            return checksumFromHeader == calculatedChecksum;
+        }
+    }
+
+    private static char sumBytes(byte[] data, int off, int len) {
+        return (char) ByteSums.sum(data, off, len);
+    }
+
+    /**
+     * @return the size code declaring a ROM of exactly the given size, or -1 if
+     * it is not a standard size.
+     */
+    public static int getSizeCode(int romSize) {
+        for (int code : SIZE_CODES) {
+            if (getStandardROMSize(code) == romSize) {
+                return code;
+            }
         }
+        return -1;
     }
 
     public static int getStandardROMSize(int sizeCode) {
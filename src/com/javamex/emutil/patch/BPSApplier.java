@@ -0,0 +1,636 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Applies a single BPS patch to a source held in a {@link SegmentedBuffer}, writing to a
+ * target buffer whose storage is chosen by the caller once the target size is known.
+ */
+class BPSApplier {
+    static final int AX_COPY_FROM_SAME_OFFSET = 0;
+    static final int AX_COPY_PATCH_HYTES_TO_TARGET = 1;
+    static final int AX_COPY_FROM_ARBITRARY_SOURCE_POS = 2;
+    static final int AX_CLONE_DATA_FROM_TARGET = 3;
+
+    static final int[] HEADER_BYTES = {0x42, 0x50, 0x53, 0x31};
+
+    // Targets at least this size are patched in parallel, a run of about TASK_BYTES per task
+    private static final long PARALLEL_THRESHOLD = 8 * 1024 * 1024;
+    private static final long TASK_BYTES = 1024 * 1024;
+
+    private final ProgressConsumer progressConsumer;
+    private final FileSpec patchSpec;
+    private long expectedTargetCRC;
+    private long patchCRC;
+    private long sourceCRC;
+    private DecodedPatch decoded;
+    private boolean keepActions;
+    private boolean targetCRCValid;
+    private int processors = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param patchSpec the file against which errors in the patch are reported
+     */
+    BPSApplier(ProgressConsumer progressConsumer, FileSpec patchSpec) {
+        this.progressConsumer = progressConsumer;
+        this.patchSpec = patchSpec;
+    }
+
+    /**
+     * Read the source and target sizes from the patch header, leaving the patch
+     * positioned at the start.
+     */
+    long[] readSizes(PatchInput patchDef) {
+        patchDef.position(0);
+        expect(patchDef, HEADER_BYTES);
+        long sourceLen = readInteger(patchDef);
+        long targetLen = readInteger(patchDef);
+        patchDef.position(0);
+        return new long[] {sourceLen, targetLen};
+    }
+
+    /**
+     * Have {@link #apply} always decode the patch's actions and hold on to them, as
+     * {@link #writeUndoPatch} needs.
+     */
+    void setKeepActions(boolean keepActions) {
+        this.keepActions = keepActions;
+    }
+
+    /**
+     * Set the number of processors that {@link #apply} takes to be available. Targets of
+     * at least {@code PARALLEL_THRESHOLD} bytes are patched in parallel unless this is one.
+     */
+    void setProcessors(int processors) {
+        this.processors = processors;
+    }
+
+    /**
+     * Whether the last target produced by {@link #apply} had the CRC given in the patch.
+     */
+    boolean isTargetCRCValid() {
+        return targetCRCValid;
+    }
+
+    /**
+     * The target CRC recorded in the patch trailer, once {@link #verifyInputs} has been called.
+     */
+    long getExpectedTargetCRC() {
+        return expectedTargetCRC;
+    }
+
+    /**
+     * Check, before any target work is done, that the patch is intact and that it is being
+     * applied to the right source. The three CRCs are read from the trailer, and the header
+     * and the patch's own CRC are checked before the source, which is usually the larger
+     * file, is read to calculate its CRC. The patch is left positioned at the metadata length.
+     *
+     * @return the length of the target
+     */
+    long verifyInputs(SegmentedBuffer origData, PatchInput patchDef) {
+        // Trailer holds the source, target and patch CRCs, in that order
+        long actionsEnd = patchDef.limit() - 12;
+        if (actionsEnd < HEADER_BYTES.length) {
+            progressConsumer.onSourceError(patchSpec, 0, "Patch too short");
+            throw new IllegalArgumentException("Patch is too short to be a BPS patch");
+        }
+        sourceCRC = patchDef.getU32(actionsEnd);
+        expectedTargetCRC = patchDef.getU32(actionsEnd + 4);
+        patchCRC = patchDef.getU32(actionsEnd + 8);
+
+        expect(patchDef, HEADER_BYTES);
+        long expectedLen = readInteger(patchDef);
+        if (expectedLen != origData.size()) {
+            throw new IllegalArgumentException("Invalid patch definition: expected length " + expectedLen + " but we have " + origData.size());
+        }
+        long outputLen = readInteger(patchDef);
+
+        long actualPatchCRC = ParallelCRC32.compute(patchDef.getData(), 0, patchDef.limit() - 4);
+        if (actualPatchCRC != patchCRC) {
+            progressConsumer.onSourceError(patchSpec, actionsEnd + 8, "Patch CRC mismatch");
+            throw new IllegalArgumentException("Patch is corrupt: expected CRC " + patchCRC + "; got " + actualPatchCRC);
+        }
+        long actual = ParallelCRC32.compute(origData);
+        if (actual != sourceCRC) {
+            progressConsumer.onSourceError(patchSpec, actionsEnd, "Source CRC mismatch");
+            throw new IllegalArgumentException("Source ROM does not match patch: expected CRC " + sourceCRC + "; got " + actual);
+        }
+        return outputLen;
+    }
+
+    SegmentedBuffer apply(SegmentedBuffer origData, PatchInput patchDef, TargetAllocator targets,
+                          CancellationToken cancellation) throws IOException {
+        targetCRCValid = false;
+        long outputLen = verifyInputs(origData, patchDef);
+        progressConsumer.onDebugMessage("Output file size: " + outputLen);
+
+        SegmentedBuffer output = targets.allocate(outputLen);
+        boolean parallel = outputLen >= PARALLEL_THRESHOLD && processors > 1;
+        DecodedPatchCache cache = DecodedPatchCache.getDefault();
+        decoded = cache.get(patchCRC, patchDef.limit());
+        if (decoded != null) {
+            progressConsumer.onDebugMessage("Using previously decoded patch");
+        } else {
+            skipMetadata(patchDef);
+            // The actions are only decoded into memory if they will be used again or are needed
+            // to schedule parallel work; otherwise they are carried out as they are read
+            boolean cacheable = cache.admit(patchCRC, patchDef.limit());
+            if (!cacheable && !parallel && !keepActions) {
+                return finish(patchDef, output, applyStreaming(origData, patchDef, output, cancellation));
+            }
+            decoded = decode(patchDef, origData.size(), outputLen, cancellation);
+            if (cacheable) {
+                cache.put(patchCRC, patchDef.limit(), decoded);
+            }
+        }
+        if (progressConsumer.isDebugEnabled()) {
+            reportActions(decoded);
+        }
+        long actualCRC;
+        if (parallel) {
+            actualCRC = applyParallel(decoded, origData, patchDef.getData(), output, cancellation);
+        } else {
+            actualCRC = applySerial(decoded, origData, patchDef.getData(), output, cancellation);
+        }
+        return finish(patchDef, output, actualCRC);
+    }
+
+    private SegmentedBuffer finish(PatchInput patchDef, SegmentedBuffer output, long actualCRC) {
+        progressConsumer.onDebugMessage("Expected CRC = " + expectedTargetCRC + "; got " + actualCRC);
+        targetCRCValid = (actualCRC == expectedTargetCRC);
+        if (!targetCRCValid) {
+            progressConsumer.onSourceError(patchSpec, patchDef.limit() - 8, "CRC mismatch");
+        }
+        return output;
+    }
+
+    /**
+     * Skip the metadata that follows the patch header, leaving the patch positioned at the first action.
+     */
+    private void skipMetadata(PatchInput patchDef) {
+        long metaLen = readInteger(patchDef);
+        progressConsumer.onDebugMessage("Meta data len: " + metaLen);
+        if (metaLen > 0) {
+            patchDef.position(patchDef.position() + metaLen);
+        }
+    }
+
+    /**
+     * The decoded actions of the patch, which must have been checked by {@link #verifyInputs},
+     * for a caller that holds on to them. They are taken from the cache of decoded patches if
+     * possible; otherwise the patch is decoded from just after its header and the result cached.
+     */
+    DecodedPatch getDecodedPatch(PatchInput patchDef, long sourceLen, long outputLen, CancellationToken cancellation) {
+        DecodedPatchCache cache = DecodedPatchCache.getDefault();
+        DecodedPatch decoded = cache.get(patchCRC, patchDef.limit());
+        if (decoded != null) {
+            progressConsumer.onDebugMessage("Using previously decoded patch");
+            return decoded;
+        }
+        skipMetadata(patchDef);
+        decoded = decode(patchDef, sourceLen, outputLen, cancellation);
+        cache.put(patchCRC, patchDef.limit(), decoded);
+        return decoded;
+    }
+
+    /**
+     * Write a patch that turns the output of the last call to {@link #apply} back into its
+     * source, which must be the target of the patch applied. No CRCs need to be calculated:
+     * both are known to match those recorded in the patch just applied.
+     *
+     * @return the number of bytes written
+     */
+    long writeUndoPatch(SegmentedBuffer origData, SegmentedBuffer output, OutputStream out) throws IOException {
+        if (!targetCRCValid) {
+            throw new IllegalStateException("Patch has not been applied successfully");
+        }
+        return UndoPatchBuilder.write(decoded, origData, output.size(), sourceCRC, expectedTargetCRC, out);
+    }
+
+    private void reportActions(DecodedPatch decoded) {
+        for (int i = 0; i < decoded.size(); i++) {
+            progressConsumer.onPatchAction(toPatchAction(decoded.getAction(i)), decoded.getTargetStart(i),
+                    decoded.getReadPosition(i), decoded.getTargetEnd(i) - decoded.getTargetStart(i));
+        }
+    }
+
+    private static PatchAction toPatchAction(int action) {
+        switch (action) {
+            case AX_COPY_FROM_SAME_OFFSET:
+                return PatchAction.SOURCE_READ;
+            case AX_COPY_PATCH_HYTES_TO_TARGET:
+                return PatchAction.TARGET_READ;
+            case AX_COPY_FROM_ARBITRARY_SOURCE_POS:
+                return PatchAction.SOURCE_COPY;
+            default:
+                return PatchAction.TARGET_COPY;
+        }
+    }
+
+    /**
+     * Carry out the actions as they are read from the current position of the patch, without
+     * holding them in memory, adding each action's output to the target CRC as it is written.
+     *
+     * @return the CRC of the target
+     */
+    private long applyStreaming(SegmentedBuffer source, PatchInput patchDef, SegmentedBuffer target,
+                                CancellationToken cancellation) {
+        StreamingTarget streaming = new StreamingTarget(source, patchDef.getData(), target);
+        readActions(patchDef, source.size(), target.size(), cancellation, streaming);
+        // Any part of the target beyond the last action is left zero-filled
+        target.updateChecksum(streaming.crc, streaming.targetPos, target.size() - streaming.targetPos);
+        return streaming.crc.getValue();
+    }
+
+    /**
+     * Carry out the decoded actions in order. Each action's output is final once written, so
+     * it is added to the target CRC straight away, while it is still in the processor cache.
+     *
+     * @return the CRC of the target
+     */
+    private long applySerial(DecodedPatch decoded, SegmentedBuffer source, SegmentedBuffer patch,
+                             SegmentedBuffer target, CancellationToken cancellation) {
+        long targetLen = target.size();
+        CRC32 crc = new CRC32();
+        int percentComplete = 0;
+        for (int i = 0; i < decoded.size(); i++) {
+            if ((i & 0xfff) == 0) {
+                cancellation.throwIfCancelled();
+            }
+            decoded.apply(i, source, patch, target);
+            target.updateChecksum(crc, decoded.getTargetStart(i), decoded.getTargetEnd(i) - decoded.getTargetStart(i));
+            int percent = (int) (decoded.getTargetEnd(i) * 100 / targetLen);
+            if (percent != percentComplete) {
+                percentComplete = percent;
+                progressConsumer.onProgress(percent);
+            }
+        }
+        // Any part of the target beyond the last action is left zero-filled
+        target.updateChecksum(crc, decoded.getTargetLength(), targetLen - decoded.getTargetLength());
+        return crc.getValue();
+    }
+
+    /**
+     * Decode the actions from the current position of the patch up to the trailer.
+     */
+    private DecodedPatch decode(PatchInput patchDef, long sourceLen, long outputLen, CancellationToken cancellation) {
+        long actionsEnd = patchDef.limit() - 12;
+        // Most actions take at least a few bytes of patch, so this rarely needs to grow
+        DecodedPatch ret = new DecodedPatch((int) Math.min((actionsEnd - patchDef.position()) / 4, 1 << 20));
+        readActions(patchDef, sourceLen, outputLen, cancellation, ret::add);
+        ret.trimToSize();
+        return ret;
+    }
+
+    /**
+     * Read the actions from the current position of the patch up to the trailer, passing each
+     * to the given sink in turn once it has been checked that every range it reads or writes
+     * lies within its file.
+     */
+    private void readActions(PatchInput patchDef, long sourceLen, long outputLen, CancellationToken cancellation,
+                             ActionSink sink) {
+        long actionsEnd = patchDef.limit() - 12;
+        long outputPos = 0;
+        long inReadPos = 0;
+        long outReadPos = 0;
+        for (int count = 0; patchDef.position() < actionsEnd; count++) {
+            if ((count & 0xffff) == 0) {
+                cancellation.throwIfCancelled();
+            }
+            long actionPos = patchDef.position();
+            long instr = readInteger(patchDef);
+            int action = (int) instr & 0x3;
+            long len = (instr >>> 2) + 1;
+            if (len > outputLen - outputPos) {
+                progressConsumer.onSourceError(patchSpec, actionPos, "Action writes beyond end of target");
+                throw new IllegalArgumentException("Invalid patch: action at 0x" + Long.toHexString(actionPos) + " writes beyond end of target");
+            }
+
+            long readPos;
+            switch (action) {
+                case AX_COPY_FROM_SAME_OFFSET:
+                    readPos = outputPos;
+                    checkRead(actionPos, readPos, len, sourceLen);
+                    break;
+                case AX_COPY_PATCH_HYTES_TO_TARGET:
+                    readPos = patchDef.position();
+                    checkRead(actionPos, readPos, len, actionsEnd);
+                    patchDef.position(readPos + len);
+                    break;
+                case AX_COPY_FROM_ARBITRARY_SOURCE_POS:
+                    inReadPos += readOffset(patchDef);
+                    readPos = inReadPos;
+                    checkRead(actionPos, readPos, len, sourceLen);
+                    inReadPos += len;
+                    break;
+                default:
+                    outReadPos += readOffset(patchDef);
+                    readPos = outReadPos;
+                    // Must start within the data already written; it may then run on into its own output
+                    checkRead(actionPos, readPos, 1, outputPos);
+                    outReadPos += len;
+                    break;
+            }
+            sink.add(action, readPos, len);
+            outputPos += len;
+        }
+    }
+
+    private void checkRead(long actionPos, long readPos, long len, long limit) {
+        if (readPos < 0 || readPos > limit - len) {
+            progressConsumer.onSourceError(patchSpec, actionPos, "Action reads out of range");
+            throw new IllegalArgumentException("Invalid patch: action at 0x" + Long.toHexString(actionPos) + " reads out of range");
+        }
+    }
+
+    /**
+     * Carry out decoded actions in parallel. Source reads and copies and target reads depend
+     * only on the source and patch, so they are all carried out first, a run of actions
+     * per task. Each target copy is then given a level one higher than that of any target
+     * copy writing the range it reads, and the levels are carried out in turn: the target
+     * copies within a level read only data written before it, so they can run in parallel.
+     *
+     * <p>The target CRC is calculated a run at a time and the runs' CRCs combined. A run
+     * without target copies is final after the first phase, so its CRC is calculated by the
+     * same task that wrote it; the remaining runs are checksummed in parallel at the end.</p>
+     *
+     * @return the CRC of the target
+     */
+    private long applyParallel(DecodedPatch decoded, SegmentedBuffer source, SegmentedBuffer patch,
+                               SegmentedBuffer target, CancellationToken cancellation) {
+        int n = decoded.size();
+        ProgressTracker progress = new ProgressTracker(target.size());
+
+        IntList runStarts = new IntList();
+        for (int i = 0; i < n; i++) {
+            if (runStarts.size == 0 || decoded.getTargetStart(i) - decoded.getTargetStart(runStarts.get(runStarts.size - 1)) >= TASK_BYTES) {
+                runStarts.add(i);
+            }
+        }
+        runStarts.add(n);
+        int runs = runStarts.size - 1;
+        long[] runCRCs = new long[runs];
+        boolean[] runHasTargetCopy = new boolean[runs];
+        IntStream.range(0, runs).parallel().forEach(r -> {
+            cancellation.throwIfCancelled();
+            long bytes = 0;
+            for (int i = runStarts.get(r), end = runStarts.get(r + 1); i < end; i++) {
+                if (decoded.getAction(i) != AX_CLONE_DATA_FROM_TARGET) {
+                    decoded.apply(i, source, patch, target);
+                    bytes += decoded.getTargetEnd(i) - decoded.getTargetStart(i);
+                } else {
+                    runHasTargetCopy[r] = true;
+                }
+            }
+            if (!runHasTargetCopy[r]) {
+                runCRCs[r] = runCRC(decoded, runStarts, r, target);
+            }
+            progress.add(bytes);
+        });
+
+        // Levels are assigned in patch order, so the maximum over the actions a target copy
+        // reads from is always taken over levels that are already final
+        MaxTree levels = new MaxTree(n);
+        IntList targetCopies = new IntList();
+        int maxLevel = 0;
+        for (int i = 0; i < n; i++) {
+            if (decoded.getAction(i) == AX_CLONE_DATA_FROM_TARGET) {
+                long readStart = decoded.getReadPosition(i);
+                long readEnd = Math.min(readStart + decoded.getTargetEnd(i) - decoded.getTargetStart(i), decoded.getTargetStart(i));
+                int level = 1 + levels.max(decoded.indexOf(readStart), decoded.indexOf(readEnd - 1));
+                levels.set(i, level);
+                targetCopies.add(i);
+                maxLevel = Math.max(maxLevel, level);
+            }
+        }
+        // Counting sort of the target copies by level, keeping patch order within a level
+        int[] levelStarts = new int[maxLevel + 2];
+        for (int k = 0; k < targetCopies.size; k++) {
+            levelStarts[levels.get(targetCopies.get(k)) + 1]++;
+        }
+        for (int l = 1; l < levelStarts.length; l++) {
+            levelStarts[l] += levelStarts[l - 1];
+        }
+        int[] byLevel = new int[targetCopies.size];
+        int[] next = Arrays.copyOf(levelStarts, levelStarts.length);
+        for (int k = 0; k < targetCopies.size; k++) {
+            int i = targetCopies.get(k);
+            byLevel[next[levels.get(i)]++] = i;
+        }
+
+        for (int level = 1; level <= maxLevel; level++) {
+            cancellation.throwIfCancelled();
+            int from = levelStarts[level];
+            int to = levelStarts[level + 1];
+            long bytes = 0;
+            for (int k = from; k < to; k++) {
+                bytes += decoded.getTargetEnd(byLevel[k]) - decoded.getTargetStart(byLevel[k]);
+            }
+            if (bytes >= TASK_BYTES && to - from > 1) {
+                IntStream.range(from, to).parallel().forEach(k -> decoded.apply(byLevel[k], source, patch, target));
+            } else {
+                for (int k = from; k < to; k++) {
+                    decoded.apply(byLevel[k], source, patch, target);
+                }
+            }
+            progress.add(bytes);
+        }
+
+        IntStream.range(0, runs).parallel().filter(r -> runHasTargetCopy[r])
+                .forEach(r -> runCRCs[r] = runCRC(decoded, runStarts, r, target));
+        long crc = 0;
+        for (int r = 0; r < runs; r++) {
+            long runStart = decoded.getTargetStart(runStarts.get(r));
+            crc = ParallelCRC32.combine(crc, runCRCs[r], decoded.getTargetStart(runStarts.get(r + 1)) - runStart);
+        }
+        // Any part of the target beyond the last action is left zero-filled
+        long tailStart = decoded.getTargetLength();
+        return ParallelCRC32.combine(crc, ParallelCRC32.compute(target, tailStart, target.size() - tailStart),
+                target.size() - tailStart);
+    }
+
+    private static long runCRC(DecodedPatch decoded, IntList runStarts, int r, SegmentedBuffer target) {
+        long start = decoded.getTargetStart(runStarts.get(r));
+        CRC32 crc = new CRC32();
+        target.updateChecksum(crc, start, decoded.getTargetStart(runStarts.get(r + 1)) - start);
+        return crc.getValue();
+    }
+
+    private long readInteger(PatchInput bb) {
+        try {
+            return bb.readVarint();
+        } catch (IllegalArgumentException e) {
+            progressConsumer.onSourceError(patchSpec, bb.position(), "Value would have exceeded 8 bytes");
+            throw e;
+        }
+    }
+
+    private long readOffset(PatchInput bb) {
+        long raw = readInteger(bb);
+        return (((raw & 1) == 1) ? -1 : 1) * (raw >>> 1);
+    }
+
+    private void expect(PatchInput bb, int... bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bb.readU8() != bytes[i]) {
+                progressConsumer.onSourceError(patchSpec, i, "Invalid data");
+                throw new IllegalArgumentException("Invalid data at offset " + i);
+            }
+        }
+    }
+
+    /**
+     * Reports progress as a percentage of the target written, from whichever thread completes work.
+     */
+    private class ProgressTracker {
+        private final long total;
+        private long done;
+        private int percentComplete;
+
+        ProgressTracker(long total) {
+            this.total = total;
+        }
+
+        synchronized void add(long bytes) {
+            done += bytes;
+            int percent = (total == 0) ? 100 : (int) (done * 100 / total);
+            if (percent != percentComplete) {
+                percentComplete = percent;
+                progressConsumer.onProgress(percent);
+            }
+        }
+    }
+
+    private static class IntList {
+        private int[] data = new int[64];
+        private int size;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        int get(int i) {
+            return data[i];
+        }
+    }
+
+    /**
+     * Fixed-size array of non-negative values, initially zero, supporting the maximum
+     * over a range of indices in logarithmic time.
+     */
+    private static class MaxTree {
+        private final int n;
+        private final int[] tree;
+
+        MaxTree(int n) {
+            this.n = n;
+            this.tree = new int[2 * n];
+        }
+
+        int get(int i) {
+            return tree[n + i];
+        }
+
+        void set(int i, int value) {
+            i += n;
+            tree[i] = value;
+            for (i >>= 1; i >= 1; i >>= 1) {
+                tree[i] = Math.max(tree[2 * i], tree[2 * i + 1]);
+            }
+        }
+
+        /**
+         * Maximum of the values from {@code from} to {@code to} inclusive.
+         */
+        int max(int from, int to) {
+            int ret = 0;
+            for (int lo = from + n, hi = to + n + 1; lo < hi; lo >>= 1, hi >>= 1) {
+                if ((lo & 1) == 1) {
+                    ret = Math.max(ret, tree[lo++]);
+                }
+                if ((hi & 1) == 1) {
+                    ret = Math.max(ret, tree[--hi]);
+                }
+            }
+            return ret;
+        }
+    }
+
+    private interface ActionSink {
+        /**
+         * Take the next action, which writes {@code len} bytes at the current end of the target.
+         */
+        void add(int action, long readPos, long len);
+    }
+
+    /**
+     * Carries out actions as they are read, keeping the target CRC and progress up to date.
+     */
+    private class StreamingTarget implements ActionSink {
+        private final SegmentedBuffer source;
+        private final SegmentedBuffer patch;
+        private final SegmentedBuffer target;
+        private final boolean debug = progressConsumer.isDebugEnabled();
+        private final CRC32 crc = new CRC32();
+        private long targetPos;
+        private int percentComplete;
+
+        StreamingTarget(SegmentedBuffer source, SegmentedBuffer patch, SegmentedBuffer target) {
+            this.source = source;
+            this.patch = patch;
+            this.target = target;
+        }
+
+        @Override
+        public void add(int action, long readPos, long len) {
+            if (debug) {
+                progressConsumer.onPatchAction(toPatchAction(action), targetPos, readPos, len);
+            }
+            DecodedPatch.apply(action, readPos, targetPos, len, source, patch, target);
+            target.updateChecksum(crc, targetPos, len);
+            targetPos += len;
+            int percent = (int) (targetPos * 100 / target.size());
+            if (percent != percentComplete) {
+                percentComplete = percent;
+                progressConsumer.onProgress(percent);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.FileSpec;
+import com.javamex.emutil.FileType;
+import com.javamex.emutil.InputFiles;
+import com.javamex.emutil.ParameterValidationException;
+import com.javamex.emutil.UtilFunctionParams;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+public class BPSChainParams extends UtilFunctionParams {
+
+    protected static final FileSpec SPEC_INPUT_ROM =
+            new FileSpec("InputRom", FileType.ROM_FILE, "ROM to patch", Pattern.compile(".+"), "Source ROM", false);
+    protected static final FileSpec SPEC_PATCH_LIST =
+            new FileSpec("PatchList", FileType.PATCH_LIST, "Patch list", Pattern.compile(".+\\.txt", Pattern.CASE_INSENSITIVE),
+                    "List of BPS patches, one per line (*.txt)", false);
+    protected static final FileSpec SPEC_OUTPUT =
+            new FileSpec("OutputRom", FileType.ROM_FILE, "Output ROM file", Pattern.compile(".+"), "Output ROM", true);
+
+    private static final List<FileSpec> INPUT_SPECS = Collections.unmodifiableList(Arrays.asList(SPEC_INPUT_ROM, SPEC_PATCH_LIST));
+    private static final List<FileSpec> OUTPUT_SPECS = Collections.singletonList(SPEC_OUTPUT);
+
+    @Override
+    public List<FileSpec> getInputSpecs() {
+        return INPUT_SPECS;
+    }
+
+    @Override
+    public List<FileSpec> getOutputSpecs() {
+        return OUTPUT_SPECS;
+    }
+
+    @Override
+    public void validate() throws ParameterValidationException {
+        super.validate();
+        List<Path> patches;
+        try {
+            patches = readPatchList();
+        } catch (IOException e) {
+            throw new ParameterValidationException("Could not read patch list: " + e.getMessage());
+        }
+        if (patches.isEmpty()) {
+            throw new ParameterValidationException("The patch list is empty");
+        }
+        for (Path p : patches) {
+            if (!InputFiles.isReadable(p)) {
+                throw new ParameterValidationException("Listed patch does not exist or is not readable: " + p);
+            }
+        }
+    }
+
+    /**
+     * Read the patches to apply, in order. The list has one patch path per line, relative to the
+     * directory containing the list. Blank lines, and lines starting with '#', are ignored, so
+     * a path may itself contain a '#'.
+     */
+    List<Path> readPatchList() throws IOException {
+        Path listFile = getInput(SPEC_PATCH_LIST);
+        Path dir = listFile.toAbsolutePath().getParent();
+        List<Path> ret = new ArrayList<>();
+        for (String line : Files.readAllLines(listFile)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                ret.add(dir.resolve(line));
+            }
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Applies an ordered list of BPS patches, each to the output of the one before. Intermediate
+ * ROMs are never written to disk: they alternate between two heap buffers, allocated once at
+ * the size of the largest intermediate, and only the result of the final patch is written out.
+ */
+public class BPSChainPatcher extends UtilFunction<BPSChainParams> {
+
+    public BPSChainPatcher(BPSChainParams params) {
+        super(UtilFunctionType.PATCH_BPS_CHAIN, params);
+    }
+
+    @Override
+    public void runFunction(ProgressConsumer progressConsumer, CancellationToken cancellation) {
+        try {
+            createPatchedFile(progressConsumer, cancellation);
+        } catch (Throwable t) {
+            progressConsumer.onFatalError(t);
+        }
+    }
+
+    public void createPatchedFile(ProgressConsumer progressConsumer, CancellationToken cancellation) throws IOException {
+        Path inputFile = getParams().getInput(BPSChainParams.SPEC_INPUT_ROM);
+        List<Path> patchFiles = getParams().readPatchList();
+        Path out = getParams().getOutput(BPSChainParams.SPEC_OUTPUT);
+        int n = patchFiles.size();
+
+        SegmentedBuffer input = InputFiles.load(inputFile);
+        // The output may be the input ROM, so it is only replaced once complete
+        OutputFiles.write(out, outChannel -> {
+            SegmentedBuffer source = input;
+
+            // Check from the headers alone that each patch fits the output of the previous
+            // one, before doing any patching, and find the largest intermediate size
+            BPSApplier headerReader = new BPSApplier(progressConsumer, BPSChainParams.SPEC_PATCH_LIST);
+            PatchInput[] patches = new PatchInput[n];
+            long expectedSource = source.size();
+            long maxIntermediate = 0;
+            for (int i = 0; i < n; i++) {
+                patches[i] = new PatchInput(InputFiles.load(patchFiles.get(i)));
+                long[] sizes = headerReader.readSizes(patches[i]);
+                if (sizes[0] != expectedSource) {
+                    throw new IOException("Patch " + (i + 1) + " (" + patchFiles.get(i).getFileName() + ") expects a source of "
+                            + sizes[0] + " bytes, but its input will be " + expectedSource + " bytes");
+                }
+                if (i < n - 1) {
+                    maxIntermediate = Math.max(maxIntermediate, sizes[1]);
+                }
+                expectedSource = sizes[1];
+            }
+
+            SegmentedBuffer[] buffers = new SegmentedBuffer[Math.min(2, n - 1)];
+            // How much of each buffer has been written to, and must be cleared before reuse
+            long[] used = new long[buffers.length];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = SegmentedBuffer.allocate(maxIntermediate);
+            }
+
+            for (int i = 0; i < n; i++) {
+                progressConsumer.onDebugMessage("Applying patch " + (i + 1) + " of " + n + ": " + patchFiles.get(i));
+                TargetAllocator targets;
+                if (i == n - 1) {
+                    targets = size -> SegmentedBuffer.map(outChannel, FileChannel.MapMode.READ_WRITE, size);
+                } else {
+                    int b = i % 2;
+                    targets = size -> {
+                        buffers[b].clear(0, Math.min(size, used[b]));
+                        used[b] = size;
+                        return buffers[b].truncate(size);
+                    };
+                }
+                BPSApplier applier = new BPSApplier(new StepProgress(progressConsumer, i, n), BPSChainParams.SPEC_PATCH_LIST);
+                source = applier.apply(source, patches[i], targets, cancellation);
+                if (!applier.isTargetCRCValid()) {
+                    throw new IOException("Patch " + (i + 1) + " (" + patchFiles.get(i).getFileName()
+                            + ") produced output with the wrong CRC");
+                }
+            }
+        });
+
+        progressConsumer.onDebugMessage("Written data to " + out);
+    }
+
+    /**
+     * Passes events through to the underlying consumer, scaling the progress of
+     * one patch to its share of the whole chain.
+     */
+    private static class StepProgress implements ProgressConsumer {
+        private final ProgressConsumer delegate;
+        private final int step;
+        private final int stepCount;
+
+        StepProgress(ProgressConsumer delegate, int step, int stepCount) {
+            this.delegate = delegate;
+            this.step = step;
+            this.stepCount = stepCount;
+        }
+
+        @Override
+        public void onDebugMessage(String msg) {
+            delegate.onDebugMessage(msg);
+        }
+
+        @Override
+        public void onSourceError(FileSpec file, long fileOffset, String message) {
+            delegate.onSourceError(file, fileOffset, message);
+        }
+
+        @Override
+        public void onFatalError(Throwable t) {
+            delegate.onFatalError(t);
+        }
+
+        @Override
+        public void onProgress(int percentComplete) {
+            delegate.onProgress((step * 100 + percentComplete) / stepCount);
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return delegate.isDebugEnabled();
+        }
+
+        @Override
+        public void onPatchAction(PatchAction action, long targetOffset, long readOffset, long length) {
+            delegate.onPatchAction(action, targetOffset, readOffset, length);
+        }
+    }
+
+}
@@ -0,0 +1,259 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.CancellationToken;
+import com.javamex.emutil.InputFiles;
+import com.javamex.emutil.OutputFiles;
+import com.javamex.emutil.ProgressConsumer;
+import com.javamex.emutil.UtilFunction;
+import com.javamex.emutil.UtilFunctionType;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * Creates a BPS patch that turns one ROM into another. Matches are found with a
+ * suffix array over the original and modified ROMs together: for each position in
+ * the modified ROM, the longest match in the original is found among its nearest
+ * neighbours in sorted order, and the longest match earlier in the modified ROM
+ * itself among a bounded number of neighbours.
+ */
+public class BPSCreator extends UtilFunction<BPSCreateParams> {
+
+    // Both ROMs are held in memory along with several int arrays per byte, so we
+    // limit the combined size rather than attempt to diff CD-sized images.
+    private static final long MAX_COMBINED_SIZE = 32 * 1024 * 1024;
+    // Shorter matches cost as much to encode as the literal bytes
+    private static final int MIN_MATCH = 4;
+    // How far to look either side in the suffix array for an earlier match in the target
+    private static final int TARGET_SEARCH_WIDTH = 16;
+
+    public BPSCreator(BPSCreateParams params) {
+        super(UtilFunctionType.CREATE_BPS, params);
+    }
+
+    @Override
+    public void runFunction(ProgressConsumer progressConsumer, CancellationToken cancellation) {
+        try {
+            createPatch(progressConsumer, cancellation);
+        } catch (Throwable t) {
+            progressConsumer.onFatalError(t);
+        }
+    }
+
+    public void createPatch(ProgressConsumer progressConsumer, CancellationToken cancellation) throws IOException {
+        Path originalFile = getParams().getInput(BPSCreateParams.SPEC_ORIGINAL_ROM);
+        Path modifiedFile = getParams().getInput(BPSCreateParams.SPEC_MODIFIED_ROM);
+        Path out = getParams().getOutput(BPSCreateParams.SPEC_OUTPUT_PATCH);
+
+        if (InputFiles.size(originalFile) + InputFiles.size(modifiedFile) > MAX_COMBINED_SIZE) {
+            throw new IOException("Combined ROM sizes exceed maximum permitted for patch creation");
+        }
+        byte[] source = InputFiles.readAllBytes(originalFile);
+        byte[] target = InputFiles.readAllBytes(modifiedFile);
+
+        long startTime = System.nanoTime();
+        SuffixArray sa = new SuffixArray(source, target, cancellation);
+        progressConsumer.onDebugMessage(String.format("Suffix array built in %d ms",
+                (System.nanoTime() - startTime) / 1_000_000));
+
+        // Nothing is left at the output path if creation fails or is cancelled part way
+        OutputFiles.writeStream(out, os -> {
+            BPSPatchWriter writer = new BPSPatchWriter(os);
+            writer.writeHeader(source.length, target.length);
+            int actionCount = writeActions(writer, sa, source, target, progressConsumer, cancellation);
+            writer.finish(crc32(source), crc32(target));
+            progressConsumer.onDebugMessage("Actions: " + actionCount);
+            progressConsumer.onDebugMessage("Patch size: " + writer.getBytesWritten());
+        });
+        progressConsumer.onDebugMessage("Written patch to " + out);
+    }
+
+    private int writeActions(BPSPatchWriter writer, SuffixArray sa, byte[] source, byte[] target,
+                             ProgressConsumer progressConsumer, CancellationToken cancellation) throws IOException {
+        MatchFinder finder = new MatchFinder(sa, source.length, target.length);
+        int actionCount = 0;
+        int literalStart = -1;
+        int pos = 0;
+        int percentComplete = 0;
+        while (pos < target.length) {
+            int percent = (int) ((long) pos * 100 / target.length);
+            if (percent != percentComplete) {
+                cancellation.throwIfCancelled();
+                percentComplete = percent;
+                progressConsumer.onProgress(percent);
+            }
+            int sameLen = 0;
+            while (pos + sameLen < Math.min(source.length, target.length) &&
+                    source[pos + sameLen] == target[pos + sameLen]) {
+                sameLen++;
+            }
+            int sourceLen = finder.sourceMatchLength(pos);
+            int targetLen = finder.findTargetMatch(pos);
+
+            // Prefer the cheaper encodings where lengths tie
+            int best = Math.max(sameLen, Math.max(sourceLen, targetLen));
+            if (best < MIN_MATCH) {
+                if (literalStart < 0) {
+                    literalStart = pos;
+                }
+                pos++;
+                continue;
+            }
+            if (literalStart >= 0) {
+                writer.targetRead(target, literalStart, pos - literalStart);
+                actionCount++;
+                literalStart = -1;
+            }
+            if (sameLen == best) {
+                writer.sourceRead(best);
+            } else if (sourceLen == best) {
+                writer.sourceCopy(finder.sourceMatchPosition(pos), best);
+            } else {
+                writer.targetCopy(finder.getTargetMatchPosition(), best);
+            }
+            actionCount++;
+            pos += best;
+        }
+        if (literalStart >= 0) {
+            writer.targetRead(target, literalStart, pos - literalStart);
+            actionCount++;
+        }
+        return actionCount;
+    }
+
+    private static long crc32(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    /**
+     * Longest match lookups for positions in the target. The best match in the source
+     * for every target position is found up front with one sweep in each direction
+     * through the suffix array; matches earlier in the target are looked up on demand.
+     */
+    private static class MatchFinder {
+        private final SuffixArray sa;
+        private final int sourceLen;
+        private final int[] sourceMatchPos;
+        private final int[] sourceMatchLen;
+        private int targetMatchPos;
+
+        MatchFinder(SuffixArray sa, int sourceLen, int targetLen) {
+            this.sa = sa;
+            this.sourceLen = sourceLen;
+            this.sourceMatchPos = new int[targetLen];
+            this.sourceMatchLen = new int[targetLen];
+            findSourceMatches();
+        }
+
+        private void findSourceMatches() {
+            int n = sa.length();
+            // Downward sweep: nearest source suffix above each target suffix, with the
+            // common prefix being the minimum LCP between the two.
+            int bestPos = -1;
+            int bestLen = 0;
+            for (int r = 0; r < n; r++) {
+                if (r > 0) {
+                    bestLen = Math.min(bestLen, sa.lcpAt(r));
+                }
+                int p = sa.suffixAt(r);
+                if (p < sourceLen) {
+                    bestPos = p;
+                    bestLen = Integer.MAX_VALUE;
+                } else if (p > sourceLen && bestPos >= 0) {
+                    sourceMatchPos[p - sourceLen - 1] = bestPos;
+                    sourceMatchLen[p - sourceLen - 1] = bestLen;
+                }
+            }
+            // Upward sweep: nearest source suffix below
+            bestPos = -1;
+            bestLen = 0;
+            for (int r = n - 1; r >= 0; r--) {
+                int p = sa.suffixAt(r);
+                if (p < sourceLen) {
+                    bestPos = p;
+                    bestLen = Integer.MAX_VALUE;
+                } else if (p > sourceLen && bestPos >= 0 && bestLen > sourceMatchLen[p - sourceLen - 1]) {
+                    sourceMatchPos[p - sourceLen - 1] = bestPos;
+                    sourceMatchLen[p - sourceLen - 1] = bestLen;
+                }
+                bestLen = Math.min(bestLen, sa.lcpAt(r));
+            }
+        }
+
+        int sourceMatchLength(int targetPos) {
+            return sourceMatchLen[targetPos];
+        }
+
+        int sourceMatchPosition(int targetPos) {
+            return sourceMatchPos[targetPos];
+        }
+
+        /**
+         * Length of the longest match for the given target position that starts earlier
+         * in the target, among the suffixes either side of it in sorted order. The match
+         * may overlap the position itself, which BPS target copies allow for.
+         */
+        int findTargetMatch(int targetPos) {
+            int textPos = sourceLen + 1 + targetPos;
+            int index = sa.indexOf(textPos);
+            int bestLen = 0;
+            int len = Integer.MAX_VALUE;
+            for (int r = index - 1; r >= 0 && r >= index - TARGET_SEARCH_WIDTH && len > bestLen; r--) {
+                len = Math.min(len, sa.lcpAt(r + 1));
+                int p = sa.suffixAt(r);
+                if (p > sourceLen && p < textPos && len > bestLen) {
+                    bestLen = len;
+                    targetMatchPos = p - sourceLen - 1;
+                }
+            }
+            len = Integer.MAX_VALUE;
+            for (int r = index + 1; r < sa.length() && r <= index + TARGET_SEARCH_WIDTH && len > bestLen; r++) {
+                len = Math.min(len, sa.lcpAt(r));
+                int p = sa.suffixAt(r);
+                if (p > sourceLen && p < textPos && len > bestLen) {
+                    bestLen = len;
+                    targetMatchPos = p - sourceLen - 1;
+                }
+            }
+            return bestLen;
+        }
+
+        /**
+         * Position of the match found by the most recent call to {@link #findTargetMatch}.
+         */
+        int getTargetMatchPosition() {
+            return targetMatchPos;
+        }
+    }
+
+}
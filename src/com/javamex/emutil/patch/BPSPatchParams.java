@@ -29,8 +29,12 @@ package com.javamex.emutil.patch;
 
 import com.javamex.emutil.FileSpec;
 import com.javamex.emutil.FileType;
+import com.javamex.emutil.ParameterValidationException;
 import com.javamex.emutil.UtilFunctionParams;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -46,8 +50,12 @@ public class BPSPatchParams extends UtilFunctionParams {
     protected static final FileSpec SPEC_OUTPUT =
             new FileSpec("OutputRom", FileType.ROM_FILE, "Output ROM file", Pattern.compile(".+"), "Output ROM", true);
 
+    protected static final FileSpec SPEC_UNDO_PATCH =
+            new FileSpec("UndoPatch", FileType.PATCH_FILE, "Undo patch file (optional)",
+                    Pattern.compile(".+\\.bps", Pattern.CASE_INSENSITIVE), "BPS patch definition (*.bps)", true, true);
+
     private static final List<FileSpec> INPUT_SPECS = Collections.unmodifiableList(Arrays.asList(SPEC_INPUT_ROM, SPEC_PATCH_FILE));
-    private static final List<FileSpec> OUTPUT_SPECS = Collections.singletonList(SPEC_OUTPUT);
+    private static final List<FileSpec> OUTPUT_SPECS = Collections.unmodifiableList(Arrays.asList(SPEC_OUTPUT, SPEC_UNDO_PATCH));
 
     @Override
     public List<FileSpec> getInputSpecs() {
@@ -59,4 +67,33 @@ public class BPSPatchParams extends UtilFunctionParams {
         return OUTPUT_SPECS;
     }
 
+    @Override
+    public void validate() throws ParameterValidationException {
+        super.validate();
+        // The inputs stay mapped while the undo patch is written, and the output replaces
+        // whatever is at its path afterwards
+        Path undo = getOutput(SPEC_UNDO_PATCH);
+        if (undo == null) {
+            return;
+        }
+        for (FileSpec other : Arrays.asList(SPEC_INPUT_ROM, SPEC_PATCH_FILE, SPEC_OUTPUT)) {
+            Path p = other.isOutput() ? getOutput(other) : getInput(other);
+            if (p != null && isSameFile(undo, p)) {
+                throw new ParameterValidationException("The undo patch must not be the same file as the "
+                        + other.getDisplayName());
+            }
+        }
+    }
+
+    private static boolean isSameFile(Path a, Path b) {
+        if (a.toAbsolutePath().normalize().equals(b.toAbsolutePath().normalize())) {
+            return true;
+        }
+        try {
+            return Files.exists(a) && Files.exists(b) && Files.isSameFile(a, b);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
 }
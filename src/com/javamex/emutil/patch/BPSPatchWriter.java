@@ -0,0 +1,143 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a BPS patch as a stream of actions, keeping track of the relative
+ * source and target read positions that copy actions are encoded against.
+ * The patch's own CRC is accumulated as data is written.
+ */
+class BPSPatchWriter {
+
+    private static final byte[] HEADER_BYTES = {0x42, 0x50, 0x53, 0x31};
+
+    private final OutputStream out;
+    private final CRC32 patchCRC = new CRC32();
+    private long sourceRelativeOffset;
+    private long targetRelativeOffset;
+    private long bytesWritten;
+
+    BPSPatchWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    void writeHeader(long sourceSize, long targetSize) throws IOException {
+        write(HEADER_BYTES, 0, HEADER_BYTES.length);
+        writeInteger(sourceSize);
+        writeInteger(targetSize);
+        // No metadata
+        writeInteger(0);
+    }
+
+    void sourceRead(long len) throws IOException {
+        writeAction(BPSApplier.AX_COPY_FROM_SAME_OFFSET, len);
+    }
+
+    void targetRead(byte[] data, int off, int len) throws IOException {
+        writeAction(BPSApplier.AX_COPY_PATCH_HYTES_TO_TARGET, len);
+        write(data, off, len);
+    }
+
+    void sourceCopy(long sourcePos, long len) throws IOException {
+        writeAction(BPSApplier.AX_COPY_FROM_ARBITRARY_SOURCE_POS, len);
+        writeOffset(sourcePos - sourceRelativeOffset);
+        sourceRelativeOffset = sourcePos + len;
+    }
+
+    void targetCopy(long targetPos, long len) throws IOException {
+        writeAction(BPSApplier.AX_CLONE_DATA_FROM_TARGET, len);
+        writeOffset(targetPos - targetRelativeOffset);
+        targetRelativeOffset = targetPos + len;
+    }
+
+    /**
+     * Write the trailing CRCs. The stream is flushed but not closed.
+     */
+    void finish(long sourceCRC, long targetCRC) throws IOException {
+        writeU32(sourceCRC);
+        writeU32(targetCRC);
+        writeU32(patchCRC.getValue());
+        out.flush();
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void writeAction(int action, long len) throws IOException {
+        if (len <= 0) {
+            throw new IllegalArgumentException("Invalid action length: " + len);
+        }
+        writeInteger(((len - 1) << 2) | action);
+    }
+
+    /**
+     * Inverse of {@link BPSPatcher}'s variable-length integer decoding: each byte holds
+     * seven bits of the value, the final byte has its top bit set, and each continuation
+     * byte implicitly adds one to the remainder.
+     */
+    private void writeInteger(long value) throws IOException {
+        while (true) {
+            int b = (int) (value & 0x7f);
+            value >>>= 7;
+            if (value == 0) {
+                writeU8(0x80 | b);
+                return;
+            }
+            writeU8(b);
+            value--;
+        }
+    }
+
+    private void writeOffset(long offset) throws IOException {
+        writeInteger((Math.abs(offset) << 1) | (offset < 0 ? 1 : 0));
+    }
+
+    private void writeU32(long value) throws IOException {
+        for (int i = 0; i < 4; i++) {
+            writeU8((int) (value >>> (i * 8)));
+        }
+    }
+
+    private void writeU8(int b) throws IOException {
+        out.write(b);
+        patchCRC.update(b);
+        bytesWritten++;
+    }
+
+    private void write(byte[] data, int off, int len) throws IOException {
+        out.write(data, off, len);
+        patchCRC.update(data, off, len);
+        bytesWritten += len;
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Checks a BPS patch against a source ROM without writing any output: the patch's own CRC
+ * and the source CRC are checked first, then either a given patched ROM is checked against
+ * the target size and CRC, or the patch is applied in memory and the result checked.
+ */
+public class BPSVerifier extends UtilFunction<BPSVerifyParams> {
+    // Targets larger than this are built in a temporary file rather than on the heap
+    private static final long MAX_HEAP_TARGET = 256L * 1024 * 1024;
+
+    public BPSVerifier(BPSVerifyParams params) {
+        super(UtilFunctionType.VERIFY_BPS, params);
+    }
+
+    @Override
+    public void runFunction(ProgressConsumer progressConsumer, CancellationToken cancellation) {
+        try {
+            verify(progressConsumer, cancellation);
+        } catch (Throwable t) {
+            progressConsumer.onFatalError(t);
+        }
+    }
+
+    private void verify(ProgressConsumer progressConsumer, CancellationToken cancellation) throws IOException {
+        Path inputFile = getParams().getInput(BPSVerifyParams.SPEC_INPUT_ROM);
+        Path patchFile = getParams().getInput(BPSVerifyParams.SPEC_PATCH_FILE);
+        Path targetFile = getParams().getInput(BPSVerifyParams.SPEC_TARGET_ROM);
+
+        SegmentedBuffer origData = InputFiles.load(inputFile);
+        PatchInput patchDef = new PatchInput(InputFiles.load(patchFile));
+        BPSApplier applier = new BPSApplier(progressConsumer, BPSVerifyParams.SPEC_PATCH_FILE);
+
+        if (targetFile != null) {
+            SegmentedBuffer target = InputFiles.load(targetFile);
+            long targetLen = applier.verifyInputs(origData, patchDef);
+            progressConsumer.onDebugMessage("Source ROM and patch CRCs are correct");
+            if (target.size() != targetLen) {
+                progressConsumer.onSourceError(BPSVerifyParams.SPEC_TARGET_ROM, 0,
+                        "Expected " + targetLen + " bytes but patched ROM has " + target.size());
+                return;
+            }
+            // The given target is only checksummed once everything cheaper has been checked
+            long targetCRC = ParallelCRC32.compute(target);
+            if (targetCRC != applier.getExpectedTargetCRC()) {
+                progressConsumer.onSourceError(BPSVerifyParams.SPEC_TARGET_ROM, 0,
+                        "Expected CRC = " + applier.getExpectedTargetCRC() + "; got " + targetCRC);
+            } else {
+                progressConsumer.onDebugMessage("Patched ROM matches the patch");
+            }
+        } else {
+            applier.apply(origData, patchDef, BPSVerifier::allocateTarget, cancellation);
+            if (applier.isTargetCRCValid()) {
+                progressConsumer.onDebugMessage("Patch applies correctly to the source ROM");
+            }
+        }
+    }
+
+    private static SegmentedBuffer allocateTarget(long size) throws IOException {
+        if (size <= MAX_HEAP_TARGET) {
+            return SegmentedBuffer.allocate(size);
+        }
+        // The mapping stays valid after the channel is closed, and the file is
+        // removed once it is no longer open
+        Path temp = Files.createTempFile("emutil", ".tmp");
+        try (FileChannel ch = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE)) {
+            return SegmentedBuffer.map(ch, FileChannel.MapMode.READ_WRITE, size);
+        }
+    }
+
+}
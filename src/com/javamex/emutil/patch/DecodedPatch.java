@@ -0,0 +1,153 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.SegmentedBuffer;
+
+import java.util.Arrays;
+
+/**
+ * The actions of a BPS patch decoded into parallel arrays. For each action, the range of
+ * the target it writes and the absolute position it reads from are recorded, so that
+ * actions can be carried out in any order once the data they read is in place.
+ */
+final class DecodedPatch {
+
+    private byte[] actions;
+    // One more entry than there are actions: action i writes targetStarts[i] to targetStarts[i + 1]
+    private long[] targetStarts;
+    private long[] readPositions;
+    private int count;
+
+    DecodedPatch(int initialCapacity) {
+        initialCapacity = Math.max(initialCapacity, 16);
+        actions = new byte[initialCapacity];
+        targetStarts = new long[initialCapacity + 1];
+        readPositions = new long[initialCapacity];
+    }
+
+    /**
+     * Append an action writing {@code len} bytes at the current end of the target. The read
+     * position is in the source for source reads and copies, in the patch file for target
+     * reads, and in the target for target copies.
+     */
+    void add(int action, long readPos, long len) {
+        if (count == actions.length) {
+            int newCapacity = count + (count >> 1);
+            actions = Arrays.copyOf(actions, newCapacity);
+            targetStarts = Arrays.copyOf(targetStarts, newCapacity + 1);
+            readPositions = Arrays.copyOf(readPositions, newCapacity);
+        }
+        actions[count] = (byte) action;
+        readPositions[count] = readPos;
+        targetStarts[count + 1] = targetStarts[count] + len;
+        count++;
+    }
+
+    /**
+     * Release any spare capacity, once all the actions have been added.
+     */
+    void trimToSize() {
+        if (actions.length != count) {
+            actions = Arrays.copyOf(actions, count);
+            targetStarts = Arrays.copyOf(targetStarts, count + 1);
+            readPositions = Arrays.copyOf(readPositions, count);
+        }
+    }
+
+    /**
+     * Approximate number of bytes of heap taken by the decoded actions.
+     */
+    long getMemoryUsage() {
+        return 64 + actions.length + 8L * (targetStarts.length + readPositions.length);
+    }
+
+    int size() {
+        return count;
+    }
+
+    int getAction(int i) {
+        return actions[i];
+    }
+
+    long getTargetStart(int i) {
+        return targetStarts[i];
+    }
+
+    long getTargetEnd(int i) {
+        return targetStarts[i + 1];
+    }
+
+    long getReadPosition(int i) {
+        return readPositions[i];
+    }
+
+    /**
+     * Total number of target bytes written by the actions.
+     */
+    long getTargetLength() {
+        return targetStarts[count];
+    }
+
+    /**
+     * Index of the action that writes the given target position, which must be
+     * less than {@link #getTargetLength()}.
+     */
+    int indexOf(long targetPos) {
+        int i = Arrays.binarySearch(targetStarts, 0, count, targetPos);
+        return (i >= 0) ? i : -i - 2;
+    }
+
+    /**
+     * Carry out action {@code i}. For a target copy, the target bytes it reads from before
+     * its own start must already be in place.
+     */
+    void apply(int i, SegmentedBuffer source, SegmentedBuffer patch, SegmentedBuffer target) {
+        apply(actions[i], readPositions[i], targetStarts[i], targetStarts[i + 1] - targetStarts[i], source, patch, target);
+    }
+
+    /**
+     * Carry out a single action writing {@code len} bytes of the target at {@code start}.
+     */
+    static void apply(int action, long readPos, long start, long len,
+                      SegmentedBuffer source, SegmentedBuffer patch, SegmentedBuffer target) {
+        switch (action) {
+            case BPSApplier.AX_COPY_FROM_SAME_OFFSET:
+            case BPSApplier.AX_COPY_FROM_ARBITRARY_SOURCE_POS:
+                source.copyTo(readPos, target, start, len);
+                break;
+            case BPSApplier.AX_COPY_PATCH_HYTES_TO_TARGET:
+                patch.copyTo(readPos, target, start, len);
+                break;
+            case BPSApplier.AX_CLONE_DATA_FROM_TARGET:
+                target.copyForward(readPos, start, len);
+                break;
+        }
+    }
+
+}
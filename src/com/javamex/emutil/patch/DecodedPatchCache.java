@@ -0,0 +1,134 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of decoded BPS patches, so that a patch applied to several ROMs, or by
+ * several jobs in the same run, is only decoded once. Entries are keyed by the patch's CRC
+ * and only returned for a patch of the same length. Once the decoded patches together take
+ * more than the cache's budget, the least recently used are evicted. A patch is only worth
+ * decoding into the cache once it has been applied before: the first time, it is applied
+ * straight from the patch file.
+ *
+ * <p>The default cache holds up to 64MB of decoded patches; the system property
+ * {@code emutil.patchCacheMB} overrides this, and a value of 0 disables caching.</p>
+ */
+final class DecodedPatchCache {
+
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final int MAX_REMEMBERED = 1024;
+
+    private static DecodedPatchCache defaultCache;
+
+    private final long maxBytes;
+    private final Map<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    // Patch lengths by CRC of patches looked for once, and of those found too large to keep
+    private final Map<Long, Long> seen = new LinkedHashMap<>();
+    private final Map<Long, Long> oversized = new LinkedHashMap<>();
+
+    DecodedPatchCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    static synchronized DecodedPatchCache getDefault() {
+        if (defaultCache == null) {
+            String mb = System.getProperty("emutil.patchCacheMB");
+            defaultCache = new DecodedPatchCache((mb != null) ? Long.parseLong(mb) * 1024 * 1024 : DEFAULT_MAX_BYTES);
+        }
+        return defaultCache;
+    }
+
+    synchronized DecodedPatch get(long patchCRC, long patchLength) {
+        Entry e = entries.get(patchCRC);
+        return (e != null && e.patchLength == patchLength) ? e.patch : null;
+    }
+
+    /**
+     * Whether a patch that is not in the cache should be decoded so that it can be added. This
+     * is only so the second time it is asked about, and never once the patch has been found
+     * too large for the cache.
+     */
+    synchronized boolean admit(long patchCRC, long patchLength) {
+        if (maxBytes == 0 || Long.valueOf(patchLength).equals(oversized.get(patchCRC))) {
+            return false;
+        }
+        if (Long.valueOf(patchLength).equals(seen.get(patchCRC))) {
+            return true;
+        }
+        remember(seen, patchCRC, patchLength);
+        return false;
+    }
+
+    /**
+     * Add a decoded patch, evicting the least recently used patches as necessary. A patch
+     * too large for the cache on its own is not added.
+     */
+    synchronized void put(long patchCRC, long patchLength, DecodedPatch patch) {
+        long bytes = patch.getMemoryUsage();
+        if (bytes > maxBytes) {
+            remember(oversized, patchCRC, patchLength);
+            return;
+        }
+        Entry old = entries.put(patchCRC, new Entry(patchLength, patch, bytes));
+        if (old != null) {
+            totalBytes -= old.bytes;
+        }
+        totalBytes += bytes;
+        for (Iterator<Entry> it = entries.values().iterator(); totalBytes > maxBytes; ) {
+            totalBytes -= it.next().bytes;
+            it.remove();
+        }
+    }
+
+    private static void remember(Map<Long, Long> keys, long patchCRC, long patchLength) {
+        keys.put(patchCRC, patchLength);
+        if (keys.size() > MAX_REMEMBERED) {
+            Iterator<Long> it = keys.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static class Entry {
+        final long patchLength;
+        final DecodedPatch patch;
+        final long bytes;
+
+        Entry(long patchLength, DecodedPatch patch, long bytes) {
+            this.patchLength = patchLength;
+            this.patch = patch;
+            this.bytes = bytes;
+        }
+    }
+
+}
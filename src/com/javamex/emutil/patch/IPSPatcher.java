@@ -0,0 +1,145 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+
+import java.io.IOException;
+
+/**
+ * Applies IPS patches, including run-length encoded records and the optional truncation
+ * length after the end marker. The patch is scanned once to find the target size, then
+ * records are applied directly from the mapped patch into the target.
+ */
+public class IPSPatcher extends StreamingPatcher<IPSPatchParams> {
+    static final int[] HEADER_BYTES = {0x50, 0x41, 0x54, 0x43, 0x48};
+    private static final int EOF_MARKER = 0x454f46;
+
+    public IPSPatcher(IPSPatchParams params) {
+        super(UtilFunctionType.PATCH_IPS, params,
+                IPSPatchParams.SPEC_INPUT_ROM, IPSPatchParams.SPEC_PATCH_FILE, IPSPatchParams.SPEC_OUTPUT);
+    }
+
+    @Override
+    void applyPatch(ProgressConsumer progressConsumer, CancellationToken cancellation,
+                    SegmentedBuffer origData, PatchInput patchDef, TargetAllocator targets) throws IOException {
+        for (int i = 0; i < HEADER_BYTES.length; i++) {
+            if (patchDef.readU8() != HEADER_BYTES[i]) {
+                progressConsumer.onSourceError(getPatchSpec(), i, "Invalid data");
+                throw new IllegalArgumentException("Invalid data at offset " + i);
+            }
+        }
+        long recordsStart = patchDef.position();
+        long outputLen = readTargetSize(progressConsumer, patchDef, origData.size());
+        progressConsumer.onDebugMessage("Output file size: " + outputLen);
+
+        SegmentedBuffer output = targets.allocate(outputLen);
+        copySource(origData, output);
+
+        boolean debug = progressConsumer.isDebugEnabled();
+        int percentComplete = 0;
+        patchDef.position(recordsStart);
+        while (true) {
+            cancellation.throwIfCancelled();
+            int offset = patchDef.readBigEndian(3);
+            if (offset == EOF_MARKER) {
+                break;
+            }
+            int len = patchDef.readBigEndian(2);
+            if (len == 0) {
+                // Run-length encoded record: a count and a single byte to repeat
+                int runLen = patchDef.readBigEndian(2);
+                byte value = patchDef.get();
+                long n = Math.min(runLen, Math.max(0, outputLen - offset));
+                if (debug) {
+                    progressConsumer.onPatchAction(PatchAction.FILL, offset, patchDef.position() - 1, runLen);
+                }
+                if (n > 0) {
+                    output.put(offset, value);
+                    output.copyForward(offset, offset + 1, n - 1);
+                }
+            } else {
+                long n = Math.min(len, Math.max(0, outputLen - offset));
+                if (debug) {
+                    progressConsumer.onPatchAction(PatchAction.TARGET_READ, offset, patchDef.position(), len);
+                }
+                if (n > 0) {
+                    patchDef.copyTo(output, offset, n);
+                }
+                // Any part of the record beyond a truncated target is skipped
+                patchDef.position(patchDef.position() + len - n);
+            }
+            int percent = (int) (patchDef.position() * 100 / patchDef.limit());
+            if (percent != percentComplete) {
+                percentComplete = percent;
+                progressConsumer.onProgress(percent);
+            }
+        }
+        progressConsumer.onProgress(100);
+    }
+
+    /**
+     * Find the size of the target by running through the record headers. The target is the
+     * size of the source, extended to cover every record, unless the patch ends with an
+     * explicit length to truncate to.
+     */
+    private long readTargetSize(ProgressConsumer progressConsumer, PatchInput patchDef, long sourceLen) {
+        long size = sourceLen;
+        while (true) {
+            require(progressConsumer, patchDef, 3);
+            int offset = patchDef.readBigEndian(3);
+            if (offset == EOF_MARKER) {
+                if (patchDef.limit() - patchDef.position() >= 3) {
+                    return patchDef.readBigEndian(3);
+                }
+                return size;
+            }
+            require(progressConsumer, patchDef, 2);
+            int len = patchDef.readBigEndian(2);
+            long end;
+            if (len == 0) {
+                require(progressConsumer, patchDef, 3);
+                end = offset + patchDef.readBigEndian(2);
+                patchDef.position(patchDef.position() + 1);
+            } else {
+                require(progressConsumer, patchDef, len);
+                end = offset + len;
+                patchDef.position(patchDef.position() + len);
+            }
+            size = Math.max(size, end);
+        }
+    }
+
+    private void require(ProgressConsumer progressConsumer, PatchInput patchDef, int n) {
+        if (patchDef.limit() - patchDef.position() < n) {
+            progressConsumer.onSourceError(getPatchSpec(), patchDef.position(), "Unexpected end of patch");
+            throw new IllegalArgumentException("Patch is truncated at offset " + patchDef.position());
+        }
+    }
+
+}
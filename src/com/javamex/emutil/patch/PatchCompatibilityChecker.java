@@ -0,0 +1,226 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Works out which patches in a folder apply to which ROMs in another, without applying any of
+ * them. Only the header and trailer of each patch are read, to find the size and CRC of the
+ * source it expects. ROMs are then grouped by size, and only those of a size some patch expects
+ * are read to calculate their CRC. IPS patches record nothing about their source, so their
+ * compatibility is reported as unknown. ROMs and patches may be gzip-compressed, and those in
+ * zip files in either folder are included.
+ */
+public class PatchCompatibilityChecker extends UtilFunction<PatchCompatibilityParams> {
+    private static final String COMPATIBLE = "Y";
+    private static final String UNKNOWN = "?";
+
+    public PatchCompatibilityChecker(PatchCompatibilityParams params) {
+        super(UtilFunctionType.PATCH_COMPATIBILITY, params);
+    }
+
+    @Override
+    public void runFunction(ProgressConsumer progressConsumer, CancellationToken cancellation) {
+        try {
+            writeMatrix(progressConsumer, cancellation);
+        } catch (Throwable t) {
+            progressConsumer.onFatalError(t);
+        }
+    }
+
+    private void writeMatrix(ProgressConsumer progressConsumer, CancellationToken cancellation) throws IOException {
+        Path patchDir = getParams().getInput(PatchCompatibilityParams.SPEC_PATCH_DIRECTORY);
+        Path romDir = getParams().getInput(PatchCompatibilityParams.SPEC_ROM_DIRECTORY);
+        List<Path> patchFiles = listFiles(patchDir);
+        List<Path> romFiles = listFiles(romDir);
+        Path out = getParams().getOutput(PatchCompatibilityParams.SPEC_OUTPUT);
+
+        List<PatchInfo> patches = new ArrayList<>();
+        Map<Long, List<PatchInfo>> patchesBySourceSize = new HashMap<>();
+        for (Path p : patchFiles) {
+            cancellation.throwIfCancelled();
+            PatchInfo info;
+            try {
+                info = readPatchInfo(p);
+            } catch (IOException e) {
+                progressConsumer.onDebugMessage("Could not read patch " + p + ": " + e.getMessage());
+                continue;
+            }
+            if (info == null) {
+                progressConsumer.onDebugMessage("Not a BPS, UPS or IPS patch: " + p.getFileName());
+                continue;
+            }
+            info.column = patches.size();
+            patches.add(info);
+            if (info.sourceSize >= 0) {
+                patchesBySourceSize.computeIfAbsent(info.sourceSize, k -> new ArrayList<>()).add(info);
+            }
+        }
+        progressConsumer.onDebugMessage("Read " + patches.size() + " patches; checking " + romFiles.size() + " ROMs");
+
+        int hashed = 0;
+        int percentComplete = 0;
+        try (Writer w = Files.newBufferedWriter(out);
+             CsvWriter csv = new CsvWriter(w)) {
+            List<String> row = new ArrayList<>();
+            row.add("ROM");
+            for (PatchInfo info : patches) {
+                row.add(patchDir.relativize(info.path).toString());
+            }
+            csv.writeRow(row);
+
+            for (int i = 0; i < romFiles.size(); i++) {
+                cancellation.throwIfCancelled();
+                Path rom = romFiles.get(i);
+                row.clear();
+                row.add(romDir.relativize(rom).toString());
+                for (PatchInfo info : patches) {
+                    row.add(info.sourceSize < 0 ? UNKNOWN : "");
+                }
+                try {
+                    List<PatchInfo> candidates = patchesBySourceSize.get(InputFiles.size(rom));
+                    if (candidates != null) {
+                        long crc = ParallelCRC32.compute(InputFiles.load(rom));
+                        hashed++;
+                        for (PatchInfo info : candidates) {
+                            if (info.sourceCRC == crc) {
+                                row.set(info.column + 1, COMPATIBLE);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    // Left with no patches marked as compatible
+                    progressConsumer.onDebugMessage("Could not read ROM " + rom + ": " + e.getMessage());
+                }
+                csv.writeRow(row);
+                int percent = (i + 1) * 100 / romFiles.size();
+                if (percent != percentComplete) {
+                    percentComplete = percent;
+                    progressConsumer.onProgress(percent);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(out);
+            throw e;
+        }
+        progressConsumer.onDebugMessage("Calculated CRCs of " + hashed + " ROMs; others were of a size no patch expects");
+        progressConsumer.onDebugMessage("Written report to " + out);
+    }
+
+    /**
+     * List the files in the directory in name order, with each zip file replaced by the files
+     * in it, named as {@link InputFiles} expects.
+     */
+    private static List<Path> listFiles(Path dir) throws IOException {
+        List<Path> files;
+        try (Stream<Path> s = Files.list(dir)) {
+            files = s.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        List<Path> ret = new ArrayList<>();
+        for (Path f : files) {
+            if (!f.getFileName().toString().toLowerCase().endsWith(".zip")) {
+                ret.add(f);
+                continue;
+            }
+            try (ZipFile zip = new ZipFile(f.toFile())) {
+                for (ZipEntry e : Collections.list(zip.entries())) {
+                    if (!e.isDirectory()) {
+                        ret.add(Paths.get(f + "!/" + e.getName()));
+                    }
+                }
+            } catch (IOException e) {
+                // Not a readable zip file, so nothing in it to match
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Identify the patch format from its header and, for BPS and UPS, read the source size from
+     * the header and the source CRC from the trailer. An uncompressed patch is mapped, so that
+     * only the pages holding those are read from disk.
+     *
+     * @return null if the file is not a recognised patch, or is truncated
+     */
+    private static PatchInfo readPatchInfo(Path p) throws IOException {
+        try {
+            PatchInput patchDef = new PatchInput(InputFiles.load(p));
+            if (patchDef.startsWith(IPSPatcher.HEADER_BYTES)) {
+                return new PatchInfo(p, -1, 0);
+            }
+            int[] header;
+            if (patchDef.startsWith(BPSApplier.HEADER_BYTES)) {
+                header = BPSApplier.HEADER_BYTES;
+            } else if (patchDef.startsWith(UPSPatcher.HEADER_BYTES)) {
+                header = UPSPatcher.HEADER_BYTES;
+            } else {
+                return null;
+            }
+            // Trailer holds the source, target and patch CRCs, in that order
+            long actionsEnd = patchDef.limit() - 12;
+            if (actionsEnd <= header.length) {
+                return null;
+            }
+            patchDef.position(header.length);
+            return new PatchInfo(p, patchDef.readVarint(), patchDef.getU32(actionsEnd));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static class PatchInfo {
+        final Path path;
+        // -1 where the format doesn't record the source
+        final long sourceSize;
+        final long sourceCRC;
+        int column;
+
+        PatchInfo(Path path, long sourceSize, long sourceCRC) {
+            this.path = path;
+            this.sourceSize = sourceSize;
+            this.sourceCRC = sourceCRC;
+        }
+    }
+
+}
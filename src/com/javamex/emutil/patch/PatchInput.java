@@ -0,0 +1,146 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.SegmentedBuffer;
+
+/**
+ * Sequential reader over a patch file, tracking the current read position
+ * as a {@code long} so that patches of any size can be streamed.
+ */
+class PatchInput {
+
+    private final SegmentedBuffer data;
+    private long position;
+
+    PatchInput(SegmentedBuffer data) {
+        this.data = data;
+    }
+
+    long position() {
+        return position;
+    }
+
+    void position(long newPos) {
+        if (newPos < 0 || newPos > data.size()) {
+            throw new IllegalArgumentException("Invalid patch position: " + newPos);
+        }
+        this.position = newPos;
+    }
+
+    SegmentedBuffer getData() {
+        return data;
+    }
+
+    long limit() {
+        return data.size();
+    }
+
+    byte get() {
+        return data.get(position++);
+    }
+
+    /**
+     * Whether the patch begins with the given bytes, without moving the read position.
+     */
+    boolean startsWith(int... bytes) {
+        if (data.size() < bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if ((data.get(i) & 0xff) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int readU8() {
+        return get() & 0xff;
+    }
+
+    /**
+     * Read a big-endian unsigned value of {@code n} bytes, as used by IPS patches.
+     */
+    int readBigEndian(int n) {
+        int ret = 0;
+        for (int i = 0; i < n; i++) {
+            ret = (ret << 8) | readU8();
+        }
+        return ret;
+    }
+
+    /**
+     * Read variable multi-byte integer, as used by BPS and UPS patches. The value is encoded
+     * as a series of bytes in which the bottom 7 bits are part of the target value and the
+     * top bit is an 'end-of-value' marker.
+     */
+    long readVarint() {
+        long ret = 0;
+        int sh = 0;
+
+        // Repeatedly read bytes and append to the value until the top bit is set
+        while (true) {
+            int i8 = readU8();
+            ret += ((long) i8 & 0x7f) << sh;
+            if ((i8 & 0x80) != 0) {
+                // End of value is marked by top bit being set
+                return ret;
+            }
+            sh += 7;
+            // In reality, an additional byte always encodes 'n+1' (there would
+            // be no point in appending an extra byte to encode zero!)
+            ret += (1L << sh);
+
+            if (sh > (64 - 7)) {
+                throw new IllegalArgumentException("Value too big");
+            }
+        }
+    }
+
+    /**
+     * Copy the next {@code len} bytes of the patch to the given buffer.
+     */
+    void copyTo(SegmentedBuffer dst, long dstPos, long len) {
+        data.copyTo(position, dst, dstPos, len);
+        position += len;
+    }
+
+    /**
+     * Read a little-endian unsigned 32-bit value at the given absolute position,
+     * without moving the read position.
+     */
+    long getU32(long pos) {
+        long ret = 0;
+        for (int i = 3; i >= 0; i--) {
+            ret = (ret << 8) | (data.get(pos + i) & 0xff);
+        }
+        return ret;
+    }
+
+}
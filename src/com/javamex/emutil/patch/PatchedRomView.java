@@ -0,0 +1,244 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Read-only view of the ROM that a BPS patch would produce from a given source, without
+ * writing the patched ROM anywhere. When the view is opened, the source and patch CRCs are
+ * checked and the patch's actions are decoded into an index by target offset. Each read then
+ * finds the actions covering the bytes requested and takes those bytes from the source or
+ * patch, following target copies back to the data they copy, so only the parts of the ROM
+ * that are actually read are ever worked out.
+ *
+ * <p>The patched ROM's own CRC is not checked, since that would mean reading all of it.</p>
+ */
+public final class PatchedRomView implements SeekableByteChannel {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final SegmentedBuffer source;
+    private final SegmentedBuffer patch;
+    private final DecodedPatch decoded;
+    private final long size;
+    private long position;
+    private boolean open = true;
+
+    private PatchedRomView(SegmentedBuffer source, SegmentedBuffer patch, DecodedPatch decoded, long size) {
+        this.source = source;
+        this.patch = patch;
+        this.decoded = decoded;
+        this.size = size;
+    }
+
+    /**
+     * Open a view of the result of applying the given BPS patch to the given source ROM. Either
+     * file may be gzip-compressed or inside a zip file.
+     *
+     * @throws IllegalArgumentException if the patch is corrupt or is not for this source ROM
+     */
+    public static PatchedRomView open(Path sourceRom, Path bpsPatch) throws IOException {
+        SegmentedBuffer source = InputFiles.load(sourceRom);
+        PatchInput patchDef = new PatchInput(InputFiles.load(bpsPatch));
+        BPSApplier applier = new BPSApplier(new ProgressConsumer() {
+            @Override
+            public void onDebugMessage(String msg) {
+            }
+
+            @Override
+            public void onSourceError(FileSpec file, long fileOffset, String message) {
+                // The exception that follows carries the details
+            }
+
+            @Override
+            public void onFatalError(Throwable t) {
+            }
+        }, BPSPatchParams.SPEC_PATCH_FILE);
+
+        long targetLen = applier.verifyInputs(source, patchDef);
+        DecodedPatch decoded = applier.getDecodedPatch(patchDef, source.size(), targetLen, new CancellationToken());
+        return new PatchedRomView(source, patchDef.getData(), decoded, targetLen);
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        if (position >= size) {
+            return -1;
+        }
+        int n = (int) Math.min(dst.remaining(), size - position);
+        if (dst.hasArray()) {
+            read(position, dst.array(), dst.arrayOffset() + dst.position(), n);
+            dst.position(dst.position() + n);
+        } else {
+            byte[] buf = new byte[Math.min(n, COPY_BUFFER_SIZE)];
+            for (int done = 0; done < n; ) {
+                int k = Math.min(n - done, buf.length);
+                read(position + done, buf, 0, k);
+                dst.put(buf, 0, k);
+                done += k;
+            }
+        }
+        position += n;
+        return n;
+    }
+
+    /**
+     * Fill {@code dst[off..off+len)} with the patched ROM from {@code pos} onwards. A target
+     * copy is followed back to the range it copies, which is queued as a further request for
+     * the same part of {@code dst}, so chains of copies are resolved without recursion. Where
+     * a copy repeats a short period, only the first period is resolved this way, and the rest
+     * is filled from it by doubling copies within {@code dst}.
+     */
+    private void read(long pos, byte[] dst, int off, int len) {
+        Deque<long[]> pending = new ArrayDeque<>();
+        pending.push(new long[] {pos, off, len});
+        long written = decoded.getTargetLength();
+        while (!pending.isEmpty()) {
+            long[] req = pending.pop();
+            long p = req[0];
+            int o = (int) req[1];
+            int n = (int) req[2];
+            if (req.length == 4) {
+                for (int filled = (int) req[3]; filled < n; ) {
+                    int c = Math.min(filled, n - filled);
+                    System.arraycopy(dst, o, dst, o + filled, c);
+                    filled += c;
+                }
+                continue;
+            }
+            if (p >= written) {
+                // Beyond the last action, the patched ROM is left zero-filled
+                Arrays.fill(dst, o, o + n, (byte) 0);
+                continue;
+            }
+            int i = decoded.indexOf(p);
+            while (n > 0) {
+                if (i == decoded.size()) {
+                    Arrays.fill(dst, o, o + n, (byte) 0);
+                    break;
+                }
+                long start = decoded.getTargetStart(i);
+                long readPos = decoded.getReadPosition(i);
+                int k = (int) Math.min(n, decoded.getTargetEnd(i) - p);
+                switch (decoded.getAction(i)) {
+                    case BPSApplier.AX_COPY_FROM_SAME_OFFSET:
+                    case BPSApplier.AX_COPY_FROM_ARBITRARY_SOURCE_POS:
+                        source.get(readPos + (p - start), dst, o, k);
+                        break;
+                    case BPSApplier.AX_COPY_PATCH_HYTES_TO_TARGET:
+                        patch.get(readPos + (p - start), dst, o, k);
+                        break;
+                    case BPSApplier.AX_CLONE_DATA_FROM_TARGET:
+                        // A copy that overruns its own start repeats the bytes between
+                        // its read position and its start
+                        long period = start - readPos;
+                        long from = readPos + (p - start) % period;
+                        int unit = (int) Math.min(k, period);
+                        if (unit < k) {
+                            // Popped once the first period has been resolved, to fill the
+                            // rest of the range with copies of it
+                            pending.push(new long[] {-1, o, k, unit});
+                        }
+                        int head = (int) Math.min(unit, start - from);
+                        pending.push(new long[] {from, o, head});
+                        if (head < unit) {
+                            pending.push(new long[] {readPos, o + head, unit - head});
+                        }
+                        break;
+                }
+                p += k;
+                o += k;
+                n -= k;
+                if (p == decoded.getTargetEnd(i)) {
+                    i++;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        checkOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+}
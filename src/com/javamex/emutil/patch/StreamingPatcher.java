@@ -0,0 +1,98 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Base for functions that apply a patch file to a ROM to produce a new ROM. Source, patch and
+ * target are all mapped rather than read onto the heap, so that memory use stays bounded however
+ * large the ROM image is, and subclasses apply the patch using bulk operations on those buffers.
+ * A source or patch inside a zip or gzip file is decompressed straight into memory instead.
+ * The target is mapped from a temporary file that replaces the output once patching succeeds.
+ */
+public abstract class StreamingPatcher<P extends UtilFunctionParams> extends UtilFunction<P> {
+
+    private final FileSpec sourceSpec;
+    private final FileSpec patchSpec;
+    private final FileSpec outputSpec;
+
+    protected StreamingPatcher(UtilFunctionType functionType, P params,
+                               FileSpec sourceSpec, FileSpec patchSpec, FileSpec outputSpec) {
+        super(functionType, params);
+        this.sourceSpec = sourceSpec;
+        this.patchSpec = patchSpec;
+        this.outputSpec = outputSpec;
+    }
+
+    @Override
+    public void runFunction(ProgressConsumer progressConsumer, CancellationToken cancellation) {
+        try {
+            createPatchedFile(progressConsumer, cancellation);
+        } catch (Throwable t) {
+            progressConsumer.onFatalError(t);
+        }
+    }
+
+    public void createPatchedFile(ProgressConsumer progressConsumer, CancellationToken cancellation) throws IOException {
+        Path inputFile = getParams().getInput(sourceSpec);
+        Path patchFile = getParams().getInput(patchSpec);
+        Path out = getParams().getOutput(outputSpec);
+
+        SegmentedBuffer origData = InputFiles.load(inputFile);
+        PatchInput patchDef = new PatchInput(InputFiles.load(patchFile));
+        // The output may be one of the inputs, so it is only replaced once complete
+        OutputFiles.write(out, outChannel -> applyPatch(progressConsumer, cancellation, origData, patchDef,
+                size -> SegmentedBuffer.map(outChannel, FileChannel.MapMode.READ_WRITE, size)));
+
+        progressConsumer.onDebugMessage("Written data to " + out);
+    }
+
+    /**
+     * Apply the patch to {@code origData}, writing the result to a buffer obtained from {@code targets}.
+     */
+    abstract void applyPatch(ProgressConsumer progressConsumer, CancellationToken cancellation,
+                             SegmentedBuffer origData, PatchInput patchDef, TargetAllocator targets) throws IOException;
+
+    protected FileSpec getPatchSpec() {
+        return patchSpec;
+    }
+
+    /**
+     * Copy as much of the source as fits to the start of the target, as the
+     * starting point for patch formats that only describe changed regions.
+     */
+    static void copySource(SegmentedBuffer origData, SegmentedBuffer output) {
+        origData.copyTo(0, output, 0, Math.min(origData.size(), output.size()));
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.CancellationToken;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Suffix array, with inverse and LCP arrays, over the concatenation of two byte
+ * sequences separated by a unique terminator. The terminator means that no common
+ * prefix between two suffixes can run from the first sequence into the second.
+ *
+ * <p>Construction is by prefix doubling: at each round, every group of suffixes that
+ * are still tied on their first {@code h} symbols is sorted by the rank of the suffix
+ * {@code h} positions along. Groups are independent of one another, so they are sorted
+ * and split in parallel, with very large groups sorted by {@link Arrays#parallelSort}.</p>
+ */
+final class SuffixArray {
+
+    private static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    // Number of tasks the groups of each round are divided between
+    private static final int CHUNKS = 4 * Runtime.getRuntime().availableProcessors();
+
+    private final byte[] first;
+    private final byte[] second;
+    private final int length;
+    private final int[] sa;
+    private final int[] rank;
+    private final int[] lcp;
+
+    SuffixArray(byte[] first, byte[] second, CancellationToken cancellation) {
+        this.first = first;
+        this.second = second;
+        this.length = first.length + 1 + second.length;
+        this.sa = new int[length];
+        this.rank = new int[length];
+        sortSuffixes(cancellation);
+        this.lcp = computeLCP();
+    }
+
+    /**
+     * Symbol at position {@code i} of the combined text: bytes map to 1-256, and
+     * the separator between the two sequences to 0.
+     */
+    private int symbol(int i) {
+        if (i < first.length) {
+            return (first[i] & 0xff) + 1;
+        } else if (i == first.length) {
+            return 0;
+        } else {
+            return (second[i - first.length - 1] & 0xff) + 1;
+        }
+    }
+
+    int length() {
+        return length;
+    }
+
+    /** Position in the text of the suffix at the given position in sorted order. */
+    int suffixAt(int index) {
+        return sa[index];
+    }
+
+    /** Position in sorted order of the suffix starting at the given text position. */
+    int indexOf(int textPos) {
+        return rank[textPos];
+    }
+
+    /** Length of the common prefix of the suffixes at sorted positions {@code index - 1} and {@code index}. */
+    int lcpAt(int index) {
+        return lcp[index];
+    }
+
+    private void sortSuffixes(CancellationToken cancellation) {
+        // Initial bucket sort on the first symbol. Throughout, the rank of a suffix is the
+        // index of the last entry of its group, so ranks are consistent with sorted order.
+        int[] counts = new int[258];
+        for (int i = 0; i < length; i++) {
+            counts[symbol(i) + 1]++;
+        }
+        for (int i = 1; i < counts.length; i++) {
+            counts[i] += counts[i - 1];
+        }
+        int[] next = counts.clone();
+        for (int i = 0; i < length; i++) {
+            sa[next[symbol(i)]++] = i;
+        }
+        int[] groups = new int[16];
+        int groupCount = 0;
+        for (int sym = 0; sym < 257; sym++) {
+            int lo = counts[sym];
+            int hi = counts[sym + 1] - 1;
+            for (int k = lo; k <= hi; k++) {
+                rank[sa[k]] = hi;
+            }
+            if (hi > lo) {
+                if (groupCount * 2 == groups.length) {
+                    groups = Arrays.copyOf(groups, groups.length * 2);
+                }
+                groups[groupCount * 2] = lo;
+                groups[groupCount * 2 + 1] = hi;
+                groupCount++;
+            }
+        }
+
+        long[] keys = new long[length];
+        for (int h = 1; groupCount > 0; h *= 2) {
+            cancellation.throwIfCancelled();
+            int[] current = groups;
+            int count = groupCount;
+            int step = h;
+            int chunks = Math.min(count, CHUNKS);
+            // Every group's keys must be taken from the previous round's ranks before
+            // any group is split, since splitting a group writes new ranks.
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                for (int g = c * count / chunks; g < (c + 1) * count / chunks; g++) {
+                    computeKeys(current[g * 2], current[g * 2 + 1], keys, step);
+                }
+            });
+            int[][] split = IntStream.range(0, chunks).parallel()
+                    .mapToObj(c -> sortAndSplit(current, c * count / chunks, (c + 1) * count / chunks, keys))
+                    .toArray(int[][]::new);
+            groupCount = 0;
+            for (int[] part : split) {
+                groupCount += part.length / 2;
+            }
+            groups = new int[groupCount * 2];
+            int pos = 0;
+            for (int[] part : split) {
+                System.arraycopy(part, 0, groups, pos, part.length);
+                pos += part.length;
+            }
+        }
+    }
+
+    private void computeKeys(int lo, int hi, long[] keys, int h) {
+        for (int k = lo; k <= hi; k++) {
+            int pos = sa[k];
+            long keyRank = (pos + h < length) ? rank[pos + h] + 1 : 0;
+            keys[k] = (keyRank << 32) | pos;
+        }
+    }
+
+    /**
+     * Sort the given range of groups on their keys, assign each resulting subgroup its
+     * new rank, and return the subgroups that are still unsorted as (start, end) pairs.
+     */
+    private int[] sortAndSplit(int[] groups, int fromGroup, int toGroup, long[] keys) {
+        int[] ret = new int[16];
+        int count = 0;
+        for (int g = fromGroup; g < toGroup; g++) {
+            int lo = groups[g * 2];
+            int hi = groups[g * 2 + 1];
+            sortKeys(keys, lo, hi);
+            int start = lo;
+            while (start <= hi) {
+                int end = start;
+                long key = keys[start] >>> 32;
+                while (end < hi && (keys[end + 1] >>> 32) == key) {
+                    end++;
+                }
+                for (int k = start; k <= end; k++) {
+                    sa[k] = (int) keys[k];
+                    rank[sa[k]] = end;
+                }
+                if (end > start) {
+                    if (count * 2 == ret.length) {
+                        ret = Arrays.copyOf(ret, ret.length * 2);
+                    }
+                    ret[count * 2] = start;
+                    ret[count * 2 + 1] = end;
+                    count++;
+                }
+                start = end + 1;
+            }
+        }
+        return Arrays.copyOf(ret, count * 2);
+    }
+
+    private static void sortKeys(long[] keys, int lo, int hi) {
+        if (hi - lo >= PARALLEL_SORT_THRESHOLD) {
+            // Typically a long run of padding bytes
+            Arrays.parallelSort(keys, lo, hi + 1);
+        } else if (hi - lo < INSERTION_SORT_THRESHOLD) {
+            // Most groups in later rounds are pairs or other tiny groups
+            for (int k = lo + 1; k <= hi; k++) {
+                long key = keys[k];
+                int j = k - 1;
+                while (j >= lo && keys[j] > key) {
+                    keys[j + 1] = keys[j];
+                    j--;
+                }
+                keys[j + 1] = key;
+            }
+        } else {
+            Arrays.sort(keys, lo, hi + 1);
+        }
+    }
+
+    /**
+     * Kasai's algorithm: visiting suffixes in text order, the common prefix with the
+     * preceding suffix in sorted order shrinks by at most one at each step.
+     */
+    private int[] computeLCP() {
+        int[] ret = new int[length];
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            int r = rank[i];
+            if (r == 0) {
+                h = 0;
+                continue;
+            }
+            int j = sa[r - 1];
+            while (i + h < length && j + h < length && symbol(i + h) == symbol(j + h)) {
+                h++;
+            }
+            ret[r] = h;
+            if (h > 0) {
+                h--;
+            }
+        }
+        return ret;
+    }
+
+}
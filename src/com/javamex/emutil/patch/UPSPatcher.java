@@ -0,0 +1,185 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+
+import java.io.IOException;
+
+/**
+ * Applies UPS patches. The target starts as a copy of the source, padded or truncated to the
+ * target size, and each hunk of the patch skips ahead a number of bytes and then XORs patch bytes
+ * into the target up to a terminating zero. Patches are applied forwards only.
+ */
+public class UPSPatcher extends StreamingPatcher<UPSPatchParams> {
+    static final int[] HEADER_BYTES = {0x55, 0x50, 0x53, 0x31};
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    public UPSPatcher(UPSPatchParams params) {
+        super(UtilFunctionType.PATCH_UPS, params,
+                UPSPatchParams.SPEC_INPUT_ROM, UPSPatchParams.SPEC_PATCH_FILE, UPSPatchParams.SPEC_OUTPUT);
+    }
+
+    @Override
+    void applyPatch(ProgressConsumer progressConsumer, CancellationToken cancellation,
+                    SegmentedBuffer origData, PatchInput patchDef, TargetAllocator targets) throws IOException {
+        // Trailer holds the source, target and patch CRCs, in that order
+        long actionsEnd = patchDef.limit() - 12;
+        if (actionsEnd < HEADER_BYTES.length) {
+            progressConsumer.onSourceError(getPatchSpec(), 0, "Patch too short");
+            throw new IllegalArgumentException("Patch is too short to be a UPS patch");
+        }
+        for (int i = 0; i < HEADER_BYTES.length; i++) {
+            if (patchDef.readU8() != HEADER_BYTES[i]) {
+                progressConsumer.onSourceError(getPatchSpec(), i, "Invalid data");
+                throw new IllegalArgumentException("Invalid data at offset " + i);
+            }
+        }
+        long expectedLen = patchDef.readVarint();
+        if (expectedLen != origData.size()) {
+            throw new IllegalArgumentException("Invalid patch definition: expected length " + expectedLen + " but we have " + origData.size());
+        }
+        long outputLen = patchDef.readVarint();
+        progressConsumer.onDebugMessage("Output file size: " + outputLen);
+
+        long sourceCRC = patchDef.getU32(actionsEnd);
+        long targetCRC = patchDef.getU32(actionsEnd + 4);
+        long patchCRC = patchDef.getU32(actionsEnd + 8);
+
+        // The patch's own CRC is checked first, as it is usually much the smaller file
+        long actualPatchCRC = ParallelCRC32.compute(patchDef.getData(), 0, patchDef.limit() - 4);
+        if (actualPatchCRC != patchCRC) {
+            progressConsumer.onSourceError(getPatchSpec(), actionsEnd + 8, "Patch CRC mismatch");
+            throw new IllegalArgumentException("Patch is corrupt: expected CRC " + patchCRC + "; got " + actualPatchCRC);
+        }
+        long actualSourceCRC = ParallelCRC32.compute(origData);
+        if (actualSourceCRC != sourceCRC) {
+            throw new IllegalArgumentException("Source ROM does not match patch: expected CRC " + sourceCRC + "; got " + actualSourceCRC);
+        }
+
+        SegmentedBuffer output = targets.allocate(outputLen);
+        copySource(origData, output);
+
+        PatchBlocks blocks = new PatchBlocks(patchDef.getData(), actionsEnd);
+        byte[] targetBytes = new byte[BLOCK_SIZE];
+        boolean debug = progressConsumer.isDebugEnabled();
+        int percentComplete = 0;
+        long outputPos = 0;
+        while (patchDef.position() < actionsEnd) {
+            cancellation.throwIfCancelled();
+            outputPos += patchDef.readVarint();
+            long hunkStart = outputPos;
+            long patchPos = patchDef.position();
+            // Bytes beyond the source read as zero, which the target already holds there,
+            // so the patch bytes can simply be XORed into the target, a block at a time up
+            // to the terminating zero. Bytes that would fall beyond the end of the target
+            // are discarded.
+            long p = patchPos;
+            while (true) {
+                if (p >= actionsEnd) {
+                    progressConsumer.onSourceError(getPatchSpec(), patchPos, "Unterminated hunk");
+                    throw new IllegalArgumentException("Invalid patch: hunk at 0x" + Long.toHexString(patchPos) + " runs into the CRCs");
+                }
+                int off = blocks.load(p);
+                int end = off;
+                while (end < blocks.len && blocks.buf[end] != 0) {
+                    end++;
+                }
+                xor(output, outputPos, blocks.buf, off, end - off, targetBytes);
+                outputPos += end - off;
+                p += end - off;
+                if (end < blocks.len) {
+                    break;
+                }
+            }
+            patchDef.position(p + 1);
+            if (debug) {
+                progressConsumer.onPatchAction(PatchAction.XOR, hunkStart, patchPos, outputPos - hunkStart);
+            }
+            // The terminating zero also stands for one unchanged byte
+            outputPos++;
+            int percent = (int) (patchDef.position() * 100 / patchDef.limit());
+            if (percent != percentComplete) {
+                percentComplete = percent;
+                progressConsumer.onProgress(percent);
+            }
+        }
+
+        long actualCRC = ParallelCRC32.compute(output);
+        progressConsumer.onDebugMessage("Expected CRC = " + targetCRC + "; got " + actualCRC);
+        if (actualCRC != targetCRC) {
+            progressConsumer.onSourceError(getPatchSpec(), patchDef.position(), "CRC mismatch");
+        }
+    }
+
+    /**
+     * XOR {@code len} bytes of {@code src} into the target at {@code pos}, discarding any that
+     * fall beyond its end.
+     */
+    private static void xor(SegmentedBuffer target, long pos, byte[] src, int off, int len, byte[] tmp) {
+        if (pos >= target.size()) {
+            return;
+        }
+        int n = (int) Math.min(len, target.size() - pos);
+        target.get(pos, tmp, 0, n);
+        for (int i = 0; i < n; i++) {
+            tmp[i] ^= src[off + i];
+        }
+        target.put(pos, tmp, 0, n);
+    }
+
+    /**
+     * The patch's hunk data, read a block at a time and never beyond the start of the trailer.
+     */
+    private static class PatchBlocks {
+        private final SegmentedBuffer patch;
+        private final long limit;
+        final byte[] buf = new byte[BLOCK_SIZE];
+        private long start;
+        int len;
+
+        PatchBlocks(SegmentedBuffer patch, long limit) {
+            this.patch = patch;
+            this.limit = limit;
+        }
+
+        /**
+         * Make sure that the block holds the patch byte at {@code pos}, which must be less
+         * than the limit, and return its offset within the block.
+         */
+        int load(long pos) {
+            if (pos < start || pos >= start + len) {
+                start = pos;
+                len = (int) Math.min(buf.length, limit - pos);
+                patch.get(pos, buf, 0, len);
+            }
+            return (int) (pos - start);
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.SegmentedBuffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Writes the reverse of a BPS patch that has just been applied: a patch that turns the patched
+ * ROM back into the original. Rather than comparing the two ROMs, it works from the forward
+ * patch's actions. Every source read or copy in the forward patch says that a range of the
+ * original can be found at a known place in the patched ROM, so the original is rebuilt by
+ * copying those ranges back, choosing at each point the range that covers the furthest, and
+ * only the parts of the original that the forward patch discarded are stored in the undo patch.
+ */
+final class UndoPatchBuilder {
+
+    private static final int MAX_LITERAL_RUN = 64 * 1024;
+
+    private final BPSPatchWriter writer;
+    private long pendingPos = -1;
+    private long pendingFrom;
+    private long pendingLen;
+
+    private UndoPatchBuilder(BPSPatchWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Write an undo patch for {@code forward}, which has turned {@code original} into a patched
+     * ROM of {@code patchedLen} bytes. The CRCs, already known from applying the forward patch,
+     * are written to the undo patch's trailer.
+     *
+     * @return the number of bytes written
+     */
+    static long write(DecodedPatch forward, SegmentedBuffer original, long patchedLen,
+                      long originalCRC, long patchedCRC, OutputStream out) throws IOException {
+        // Ranges of the original that the forward patch copied, sorted by position in the original
+        int n = 0;
+        Integer[] copies = new Integer[forward.size()];
+        for (int i = 0; i < forward.size(); i++) {
+            int action = forward.getAction(i);
+            if (action == BPSApplier.AX_COPY_FROM_SAME_OFFSET || action == BPSApplier.AX_COPY_FROM_ARBITRARY_SOURCE_POS) {
+                copies[n++] = i;
+            }
+        }
+        Arrays.sort(copies, 0, n, Comparator.comparingLong(forward::getReadPosition));
+
+        BPSPatchWriter writer = new BPSPatchWriter(out);
+        writer.writeHeader(patchedLen, original.size());
+        UndoPatchBuilder builder = new UndoPatchBuilder(writer);
+        long originalLen = original.size();
+        long pos = 0;
+        long bestEnd = 0;
+        long bestDelta = 0;
+        int next = 0;
+        while (pos < originalLen) {
+            while (next < n && forward.getReadPosition(copies[next]) <= pos) {
+                int i = copies[next++];
+                long end = forward.getReadPosition(i) + forward.getTargetEnd(i) - forward.getTargetStart(i);
+                if (end > bestEnd) {
+                    bestEnd = end;
+                    bestDelta = forward.getTargetStart(i) - forward.getReadPosition(i);
+                }
+            }
+            if (bestEnd > pos) {
+                builder.copy(pos, pos + bestDelta, bestEnd - pos);
+                pos = bestEnd;
+            } else {
+                long literalEnd = (next < n) ? forward.getReadPosition(copies[next]) : originalLen;
+                builder.literal(original, pos, literalEnd - pos);
+                pos = literalEnd;
+            }
+        }
+        builder.flushCopy();
+        writer.finish(patchedCRC, originalCRC);
+        return writer.getBytesWritten();
+    }
+
+    /**
+     * Rebuild {@code len} bytes of the original at {@code pos} from the patched ROM at
+     * {@code from}, merging with the previous copy where the two are contiguous.
+     */
+    private void copy(long pos, long from, long len) throws IOException {
+        if (pendingPos >= 0 && pendingPos + pendingLen == pos && pendingFrom + pendingLen == from) {
+            pendingLen += len;
+            return;
+        }
+        flushCopy();
+        pendingPos = pos;
+        pendingFrom = from;
+        pendingLen = len;
+    }
+
+    private void flushCopy() throws IOException {
+        if (pendingPos < 0) {
+            return;
+        }
+        if (pendingFrom == pendingPos) {
+            writer.sourceRead(pendingLen);
+        } else {
+            writer.sourceCopy(pendingFrom, pendingLen);
+        }
+        pendingPos = -1;
+    }
+
+    private void literal(SegmentedBuffer original, long pos, long len) throws IOException {
+        flushCopy();
+        byte[] buf = new byte[(int) Math.min(len, MAX_LITERAL_RUN)];
+        while (len > 0) {
+            int k = (int) Math.min(len, buf.length);
+            original.get(pos, buf, 0, k);
+            writer.targetRead(buf, 0, k);
+            pos += k;
+            len -= k;
+        }
+    }
+
+}
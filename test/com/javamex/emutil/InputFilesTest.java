@@ -0,0 +1,150 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class InputFilesTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("inputfilestest");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void gzipIsLoaded() throws IOException {
+        byte[] data = randomBytes(300000);
+        Path p = dir.resolve("rom.sms.gz");
+        Files.write(p, gzip(data));
+        assertEquals(data.length, InputFiles.size(p));
+        assertArrayEquals(data, toArray(InputFiles.load(p)));
+        assertArrayEquals(data, InputFiles.readAllBytes(p));
+    }
+
+    @Test
+    public void multiMemberGzipIsLoadedInFull() throws IOException {
+        // The trailer only records the size of the last member
+        byte[] first = randomBytes(200000);
+        byte[] second = randomBytes(1000);
+        Path p = dir.resolve("rom.sms.gz");
+        try (OutputStream out = Files.newOutputStream(p)) {
+            out.write(gzip(first));
+            out.write(gzip(second));
+        }
+        byte[] expected = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, expected, first.length, second.length);
+        assertEquals(expected.length, InputFiles.size(p));
+        assertArrayEquals(expected, toArray(InputFiles.load(p)));
+    }
+
+    @Test
+    public void corruptGzipSizeIsNotTrusted() throws IOException {
+        byte[] data = randomBytes(5000);
+        Path p = dir.resolve("rom.sms.gz");
+        for (int isize : new int[] {-1, 0, 100}) {
+            byte[] gz = gzip(data);
+            for (int i = 0; i < 4; i++) {
+                gz[gz.length - 4 + i] = (byte) (isize >>> (8 * i));
+            }
+            Files.write(p, gz);
+            // Inflating checks the trailer, so the load fails rather than giving a wrong size
+            // or making a huge allocation
+            try {
+                InputFiles.load(p);
+                fail("Loaded gzip file with ISIZE " + isize);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void zipEntryIsLoaded() throws IOException {
+        byte[] data = randomBytes(100000);
+        Path zip = dir.resolve("roms.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("dir/game.sms"));
+            out.write(data);
+            out.closeEntry();
+        }
+        Path p = Paths.get(zip + "!/dir/game.sms");
+        assertTrue(InputFiles.isCompressed(p));
+        assertEquals("game.sms", InputFiles.getFileName(p));
+        assertEquals(data.length, InputFiles.size(p));
+        assertArrayEquals(data, toArray(InputFiles.load(p)));
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(ret)) {
+            out.write(data);
+        }
+        return ret.toByteArray();
+    }
+
+    private static byte[] toArray(SegmentedBuffer buf) {
+        byte[] ret = new byte[(int) buf.size()];
+        buf.get(0, ret, 0, ret.length);
+        return ret;
+    }
+
+    private static byte[] randomBytes(int n) {
+        byte[] ret = new byte[n];
+        new Random(n).nextBytes(ret);
+        return ret;
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class ParallelCRC32Test {
+
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    @Test
+    public void combineMatchesCRCOfConcatenation() {
+        Random rnd = new Random(1);
+        int[] lengths = {0, 1, 2, 3, 7, 8, 255, 1000, 4097, 65535};
+        for (int len1 : lengths) {
+            for (int len2 : lengths) {
+                byte[] data = randomBytes(rnd, len1 + len2);
+                assertEquals(len1 + "+" + len2, crc(data, 0, len1 + len2),
+                        ParallelCRC32.combine(crc(data, 0, len1), crc(data, len1, len2), len2));
+            }
+        }
+    }
+
+    @Test
+    public void combineOfEmptySecondRunIsFirstCRC() {
+        byte[] data = randomBytes(new Random(2), 100);
+        long crc1 = crc(data, 0, data.length);
+        assertEquals(crc1, ParallelCRC32.combine(crc1, crc(data, 0, 0), 0));
+    }
+
+    @Test
+    public void combineOverSeveralChunks() {
+        Random rnd = new Random(3);
+        int len = 3 * CHUNK_SIZE + 12345;
+        byte[] data = randomBytes(rnd, len);
+        long combined = crc(data, 0, 0);
+        for (int start = 0; start < len; start += CHUNK_SIZE) {
+            int n = Math.min(CHUNK_SIZE, len - start);
+            combined = ParallelCRC32.combine(combined, crc(data, start, n), n);
+        }
+        assertEquals(crc(data, 0, len), combined);
+
+        // Split at odd points, with a second run longer than the first
+        int split = 1234567;
+        assertEquals(crc(data, 0, len),
+                ParallelCRC32.combine(crc(data, 0, split), crc(data, split, len - split), len - split));
+    }
+
+    @Test
+    public void computeMatchesSerialCRC() {
+        Random rnd = new Random(4);
+        int len = 2 * CHUNK_SIZE + CHUNK_SIZE / 2 + 3;
+        byte[] data = randomBytes(rnd, len);
+        SegmentedBuffer buf = SegmentedBuffer.allocate(len);
+        buf.put(0, data, 0, len);
+        assertEquals(crc(data, 0, len), ParallelCRC32.compute(buf));
+        assertEquals(crc(data, 17, len - 30), ParallelCRC32.compute(buf, 17, len - 30));
+        assertEquals(crc(data, 5, 999), ParallelCRC32.compute(buf, 5, 999));
+    }
+
+    private static long crc(byte[] data, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+        return crc.getValue();
+    }
+
+    private static byte[] randomBytes(Random rnd, int n) {
+        byte[] ret = new byte[n];
+        rnd.nextBytes(ret);
+        return ret;
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BPSApplierTest {
+
+    private static final int TARGET_SIZE = 12 * 1024 * 1024;
+
+    private final List<String> errors = new ArrayList<>();
+
+    @Test
+    public void parallelMatchesSerialWithTargetCopies() throws IOException {
+        Random rnd = new Random(1);
+        byte[] source = randomBytes(rnd, 4 * 1024 * 1024);
+        TestPatchBuilder forward = new TestPatchBuilder(source, TARGET_SIZE)
+                .sourceRead(1024 * 1024)
+                .targetRead(randomBytes(rnd, 1000));
+        // Reads data that it is itself writing, over several tasks
+        forward.targetCopy(0, 2 * 1024 * 1024);
+        // Repeats the last seven bytes
+        forward.targetRead(randomBytes(rnd, 7));
+        forward.targetCopy(forward.getTargetLength() - 7, 1536 * 1024);
+        forward.sourceCopy(3 * 1024 * 1024, 1024 * 1024);
+        // Reads what the two copies above wrote
+        forward.targetCopy(1024 * 1024 + 500, 3 * 1024 * 1024);
+        // Short copies, many of which read the output of earlier ones
+        for (int i = 0; i < 3000; i++) {
+            int len = 1 + rnd.nextInt(1000);
+            if (rnd.nextInt(4) == 0) {
+                forward.targetRead(randomBytes(rnd, len));
+            } else {
+                int from = forward.getTargetLength() - 1 - rnd.nextInt(Math.min(forward.getTargetLength(), 200000));
+                forward.targetCopy(from, len);
+            }
+        }
+        while (forward.getTargetLength() < TARGET_SIZE) {
+            int len = Math.min(TARGET_SIZE - forward.getTargetLength(), 1 + rnd.nextInt(300000));
+            forward.sourceCopy(rnd.nextInt(source.length - len), len);
+        }
+        byte[] patch = forward.finish();
+        byte[] expected = forward.getTarget();
+
+        // The patch is applied as it is read at first; once it has been seen again, it is decoded,
+        // cached and applied from its decoded actions
+        for (int i = 0; i < 2; i++) {
+            assertArrayEquals(expected, apply(source, patch, 1));
+            assertArrayEquals(expected, apply(source, patch, 4));
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void parallelMatchesSerialWithLongSelfOverlappingCopy() throws IOException {
+        Random rnd = new Random(2);
+        byte[] source = randomBytes(rnd, 65536);
+        byte[] patch = new TestPatchBuilder(source, TARGET_SIZE)
+                .sourceRead(3)
+                .targetCopy(0, TARGET_SIZE - 3)
+                .finish();
+        byte[] expected = new byte[TARGET_SIZE];
+        for (int i = 0; i < TARGET_SIZE; i++) {
+            expected[i] = source[i % 3];
+        }
+
+        assertArrayEquals(expected, apply(source, patch, 4));
+        assertArrayEquals(expected, apply(source, patch, 1));
+        assertArrayEquals(expected, apply(source, patch, 4));
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void corruptPatchIsReportedBeforeSourceIsChecked() throws IOException {
+        Random rnd = new Random(3);
+        byte[] source = randomBytes(rnd, 1000);
+        byte[] patch = new TestPatchBuilder(source, 1000).sourceRead(1000).finish();
+        patch[6] ^= 1;
+        source[0] ^= 1;
+        BPSApplier applier = new BPSApplier(consumer(), BPSPatchParams.SPEC_PATCH_FILE);
+        try {
+            applier.verifyInputs(toBuffer(source), new PatchInput(toBuffer(patch)));
+            fail("Corrupt patch was accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals(Collections.singletonList("Patch CRC mismatch"), errors);
+        }
+    }
+
+    private byte[] apply(byte[] source, byte[] patch, int processors) throws IOException {
+        BPSApplier applier = new BPSApplier(consumer(), BPSPatchParams.SPEC_PATCH_FILE);
+        applier.setProcessors(processors);
+        SegmentedBuffer output = applier.apply(toBuffer(source), new PatchInput(toBuffer(patch)),
+                SegmentedBuffer::allocate, new CancellationToken());
+        assertTrue(applier.isTargetCRCValid());
+        byte[] ret = new byte[(int) output.size()];
+        output.get(0, ret, 0, ret.length);
+        return ret;
+    }
+
+    private ProgressConsumer consumer() {
+        return new ProgressConsumer() {
+            @Override
+            public void onDebugMessage(String msg) {
+            }
+
+            @Override
+            public void onSourceError(FileSpec file, long fileOffset, String message) {
+                errors.add(message);
+            }
+
+            @Override
+            public void onFatalError(Throwable t) {
+                errors.add(String.valueOf(t));
+            }
+        };
+    }
+
+    private static SegmentedBuffer toBuffer(byte[] data) {
+        SegmentedBuffer ret = SegmentedBuffer.allocate(data.length);
+        ret.put(0, data, 0, data.length);
+        return ret;
+    }
+
+    private static byte[] randomBytes(Random rnd, int n) {
+        byte[] ret = new byte[n];
+        rnd.nextBytes(ret);
+        return ret;
+    }
+
+}
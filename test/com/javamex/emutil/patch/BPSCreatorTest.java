@@ -0,0 +1,165 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BPSCreatorTest {
+
+    private Path dir;
+    private final List<String> errors = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("bpscreatetest");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void patchRecreatesEditedRom() throws IOException {
+        Random rnd = new Random(1);
+        byte[] original = randomBytes(rnd, 512 * 1024);
+        byte[] modified = original.clone();
+        // Scattered edits
+        for (int i = 0; i < 200; i++) {
+            modified[rnd.nextInt(modified.length)] ^= (byte) (1 + rnd.nextInt(255));
+        }
+        // A block moved elsewhere, a block of new data repeated, and a run of a single value
+        System.arraycopy(original, 300000, modified, 10000, 40000);
+        byte[] block = randomBytes(rnd, 1000);
+        for (int i = 0; i < 20; i++) {
+            System.arraycopy(block, 0, modified, 100000 + i * 1500, block.length);
+        }
+        Arrays.fill(modified, 200000, 260000, (byte) 0xff);
+
+        byte[] patch = roundTrip(original, modified);
+        assertTrue("Patch of " + patch.length + " bytes", patch.length < modified.length / 10);
+    }
+
+    @Test
+    public void patchRecreatesResizedRom() throws IOException {
+        Random rnd = new Random(2);
+        byte[] original = randomBytes(rnd, 100000);
+        // Extended with new data and a copy of part of the original
+        byte[] extended = Arrays.copyOf(original, 180000);
+        System.arraycopy(randomBytes(rnd, 30000), 0, extended, 100000, 30000);
+        System.arraycopy(original, 5000, extended, 130000, 50000);
+        roundTrip(original, extended);
+        // Truncated, with data inserted near the start
+        byte[] truncated = new byte[60000];
+        System.arraycopy(original, 0, truncated, 0, 1000);
+        System.arraycopy(randomBytes(rnd, 17), 0, truncated, 1000, 17);
+        System.arraycopy(original, 1000, truncated, 1017, truncated.length - 1017);
+        roundTrip(original, truncated);
+    }
+
+    @Test
+    public void patchRecreatesUnrelatedRom() throws IOException {
+        Random rnd = new Random(3);
+        roundTrip(randomBytes(rnd, 20000), randomBytes(rnd, 30000));
+        roundTrip(new byte[1000], randomBytes(rnd, 5));
+        roundTrip(randomBytes(rnd, 5), new byte[70000]);
+    }
+
+    /**
+     * Create a patch from {@code original} to {@code modified}, check that applying it to
+     * the original gives the modified ROM, and return the patch.
+     */
+    private byte[] roundTrip(byte[] original, byte[] modified) throws IOException {
+        Path originalFile = dir.resolve("original.sms");
+        Path modifiedFile = dir.resolve("modified.sms");
+        Path patchFile = dir.resolve("patch.bps");
+        Path out = dir.resolve("out.sms");
+        Files.write(originalFile, original);
+        Files.write(modifiedFile, modified);
+        Files.deleteIfExists(out);
+
+        BPSCreateParams createParams = new BPSCreateParams();
+        createParams.setInput(BPSCreateParams.SPEC_ORIGINAL_ROM, originalFile);
+        createParams.setInput(BPSCreateParams.SPEC_MODIFIED_ROM, modifiedFile);
+        createParams.setOutput(BPSCreateParams.SPEC_OUTPUT_PATCH, patchFile);
+        new BPSCreator(createParams).runFunction(progressConsumer(), new CancellationToken());
+
+        BPSPatchParams applyParams = new BPSPatchParams();
+        applyParams.setInput(BPSPatchParams.SPEC_INPUT_ROM, originalFile);
+        applyParams.setInput(BPSPatchParams.SPEC_PATCH_FILE, patchFile);
+        applyParams.setOutput(BPSPatchParams.SPEC_OUTPUT, out);
+        new BPSPatcher(applyParams).runFunction(progressConsumer(), new CancellationToken());
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertArrayEquals(modified, Files.readAllBytes(out));
+        return Files.readAllBytes(patchFile);
+    }
+
+    private ProgressConsumer progressConsumer() {
+        return new ProgressConsumer() {
+            @Override
+            public void onDebugMessage(String msg) {
+            }
+
+            @Override
+            public void onSourceError(FileSpec file, long fileOffset, String message) {
+                errors.add(message);
+            }
+
+            @Override
+            public void onFatalError(Throwable t) {
+                errors.add(String.valueOf(t));
+            }
+        };
+    }
+
+    private static byte[] randomBytes(Random rnd, int n) {
+        byte[] ret = new byte[n];
+        rnd.nextBytes(ret);
+        return ret;
+    }
+
+}
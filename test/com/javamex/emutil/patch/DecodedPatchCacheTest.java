@@ -0,0 +1,108 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DecodedPatchCacheTest {
+
+    @Test
+    public void patchIsAdmittedOnSecondSighting() {
+        DecodedPatchCache cache = new DecodedPatchCache(1024 * 1024);
+        assertFalse(cache.admit(1, 100));
+        assertFalse(cache.admit(2, 100));
+        assertTrue(cache.admit(1, 100));
+        // A patch with the same CRC but a different length is a different patch
+        assertFalse(cache.admit(2, 101));
+        assertTrue(cache.admit(2, 101));
+    }
+
+    @Test
+    public void nothingIsAdmittedWhenDisabled() {
+        DecodedPatchCache cache = new DecodedPatchCache(0);
+        assertFalse(cache.admit(1, 100));
+        assertFalse(cache.admit(1, 100));
+    }
+
+    @Test
+    public void patchIsOnlyReturnedForSameLength() {
+        DecodedPatchCache cache = new DecodedPatchCache(1024 * 1024);
+        DecodedPatch patch = new DecodedPatch(100);
+        cache.put(1, 100, patch);
+        assertSame(patch, cache.get(1, 100));
+        assertNull(cache.get(1, 99));
+        assertNull(cache.get(2, 100));
+    }
+
+    @Test
+    public void leastRecentlyUsedAreEvictedByWeight() {
+        long weight = new DecodedPatch(100).getMemoryUsage();
+        DecodedPatchCache cache = new DecodedPatchCache(2 * weight + weight / 2);
+        DecodedPatch a = new DecodedPatch(100);
+        DecodedPatch b = new DecodedPatch(100);
+        DecodedPatch c = new DecodedPatch(100);
+        cache.put(1, 10, a);
+        cache.put(2, 10, b);
+        // Replacing an entry doesn't count it twice
+        cache.put(2, 10, b);
+        assertSame(a, cache.get(1, 10));
+        assertSame(b, cache.get(2, 10));
+
+        cache.get(1, 10);
+        cache.put(3, 10, c);
+        assertSame(a, cache.get(1, 10));
+        assertNull(cache.get(2, 10));
+        assertSame(c, cache.get(3, 10));
+
+        // Taking up two entries' worth, so both others must go
+        DecodedPatch big = new DecodedPatch(200);
+        assertTrue(big.getMemoryUsage() > weight + weight / 2);
+        cache.put(4, 10, big);
+        assertNull(cache.get(1, 10));
+        assertNull(cache.get(3, 10));
+        assertSame(big, cache.get(4, 10));
+    }
+
+    @Test
+    public void oversizedPatchIsNotCachedOrAdmittedAgain() {
+        long weight = new DecodedPatch(100).getMemoryUsage();
+        DecodedPatchCache cache = new DecodedPatchCache(weight);
+        DecodedPatch small = new DecodedPatch(100);
+        cache.put(1, 10, small);
+        assertFalse(cache.admit(2, 10));
+        assertTrue(cache.admit(2, 10));
+        cache.put(2, 10, new DecodedPatch(200));
+        assertNull(cache.get(2, 10));
+        assertSame(small, cache.get(1, 10));
+        assertFalse(cache.admit(2, 10));
+        assertFalse(cache.admit(2, 10));
+    }
+
+}
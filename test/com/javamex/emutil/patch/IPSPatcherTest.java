@@ -0,0 +1,163 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IPSPatcherTest {
+
+    private Path dir;
+    private final List<String> errors = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ipstest");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void recordsBeyondTruncationLengthAreSkipped() throws IOException {
+        byte[] source = randomBytes(250000);
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        patch.writeBytes("PATCH".getBytes());
+        byte[] inRange = randomBytes(100);
+        writeRecord(patch, 1000, inRange);
+        // Data and run-length encoded records wholly beyond the truncated end
+        writeRecord(patch, 280609, randomBytes(50));
+        writeRLERecord(patch, 300000, 64, 0x55);
+        // A record running over the truncated end
+        byte[] straddling = randomBytes(40);
+        writeRecord(patch, 199980, straddling);
+        writeRLERecord(patch, 199990, 30, 0xaa);
+        patch.writeBytes("EOF".getBytes());
+        writeBigEndian(patch, 200000, 3);
+
+        byte[] expected = Arrays.copyOf(source, 200000);
+        System.arraycopy(inRange, 0, expected, 1000, inRange.length);
+        System.arraycopy(straddling, 0, expected, 199980, 20);
+        Arrays.fill(expected, 199990, 200000, (byte) 0xaa);
+
+        assertArrayEquals(expected, apply(source, patch.toByteArray()));
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void targetIsExtendedToCoverRecords() throws IOException {
+        byte[] source = randomBytes(1000);
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        patch.writeBytes("PATCH".getBytes());
+        byte[] data = randomBytes(10);
+        writeRecord(patch, 1500, data);
+        writeRLERecord(patch, 1200, 5, 0x11);
+        patch.writeBytes("EOF".getBytes());
+
+        byte[] expected = Arrays.copyOf(source, 1510);
+        System.arraycopy(data, 0, expected, 1500, data.length);
+        Arrays.fill(expected, 1200, 1205, (byte) 0x11);
+
+        assertArrayEquals(expected, apply(source, patch.toByteArray()));
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    private byte[] apply(byte[] source, byte[] patch) throws IOException {
+        Path sourceFile = dir.resolve("source.sms");
+        Path patchFile = dir.resolve("patch.ips");
+        Path out = dir.resolve("out.sms");
+        Files.write(sourceFile, source);
+        Files.write(patchFile, patch);
+        IPSPatchParams params = new IPSPatchParams();
+        params.setInput(IPSPatchParams.SPEC_INPUT_ROM, sourceFile);
+        params.setInput(IPSPatchParams.SPEC_PATCH_FILE, patchFile);
+        params.setOutput(IPSPatchParams.SPEC_OUTPUT, out);
+        new IPSPatcher(params).runFunction(new ProgressConsumer() {
+            @Override
+            public void onDebugMessage(String msg) {
+            }
+
+            @Override
+            public void onSourceError(FileSpec file, long fileOffset, String message) {
+                errors.add(message);
+            }
+
+            @Override
+            public void onFatalError(Throwable t) {
+                errors.add(String.valueOf(t));
+            }
+        }, new CancellationToken());
+        return Files.exists(out) ? Files.readAllBytes(out) : null;
+    }
+
+    private static void writeRecord(ByteArrayOutputStream out, int offset, byte[] data) {
+        writeBigEndian(out, offset, 3);
+        writeBigEndian(out, data.length, 2);
+        out.writeBytes(data);
+    }
+
+    private static void writeRLERecord(ByteArrayOutputStream out, int offset, int count, int value) {
+        writeBigEndian(out, offset, 3);
+        writeBigEndian(out, 0, 2);
+        writeBigEndian(out, count, 2);
+        out.write(value);
+    }
+
+    private static void writeBigEndian(ByteArrayOutputStream out, int value, int n) {
+        for (int i = n - 1; i >= 0; i--) {
+            out.write(value >>> (8 * i));
+        }
+    }
+
+    private static byte[] randomBytes(int n) {
+        byte[] ret = new byte[n];
+        new Random(n).nextBytes(ret);
+        return ret;
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class PatchCompatibilityCheckerTest {
+
+    private Path dir;
+    private final List<String> errors = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("compattest");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    @Test
+    public void compressedRomsAndPatchesAreMatched() throws IOException {
+        Path roms = Files.createDirectory(dir.resolve("roms"));
+        Path patches = Files.createDirectory(dir.resolve("patches"));
+        byte[] a = randomBytes(1000);
+        byte[] b = randomBytes(2000);
+        byte[] c = randomBytes(3000);
+        Files.write(roms.resolve("a.sms"), a);
+        writeGzip(roms.resolve("b.sms.gz"), b);
+        writeZip(roms.resolve("roms.zip"), "sub/c.sms", c);
+
+        Files.write(patches.resolve("a.bps"), patchFor(a));
+        writeGzip(patches.resolve("b.bps.gz"), patchFor(b));
+        // Too short to hold the trailer
+        Files.write(patches.resolve("bad.bps"), Arrays.copyOf(patchFor(c), 10));
+        writeZip(patches.resolve("patches.zip"), "c.bps", patchFor(c));
+        Files.write(patches.resolve("x.ips"), "PATCHEOF".getBytes());
+
+        Path out = dir.resolve("matrix.csv");
+        PatchCompatibilityParams params = new PatchCompatibilityParams();
+        params.setInput(PatchCompatibilityParams.SPEC_ROM_DIRECTORY, roms);
+        params.setInput(PatchCompatibilityParams.SPEC_PATCH_DIRECTORY, patches);
+        params.setOutput(PatchCompatibilityParams.SPEC_OUTPUT, out);
+        new PatchCompatibilityChecker(params).runFunction(new ProgressConsumer() {
+            @Override
+            public void onDebugMessage(String msg) {
+            }
+
+            @Override
+            public void onSourceError(FileSpec file, long fileOffset, String message) {
+                errors.add(message);
+            }
+
+            @Override
+            public void onFatalError(Throwable t) {
+                errors.add(String.valueOf(t));
+            }
+        }, new CancellationToken());
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(Arrays.asList(
+                "ROM,a.bps,b.bps.gz,patches.zip!/c.bps,x.ips",
+                "a.sms,Y,,,?",
+                "b.sms.gz,,Y,,?",
+                "roms.zip!/sub/c.sms,,,Y,?"), Files.readAllLines(out));
+    }
+
+    private static byte[] patchFor(byte[] source) throws IOException {
+        return new TestPatchBuilder(source, source.length)
+                .sourceRead(source.length / 2)
+                .targetRead(new byte[source.length - source.length / 2])
+                .finish();
+    }
+
+    private static void writeGzip(Path p, byte[] data) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(p))) {
+            out.write(data);
+        }
+    }
+
+    private static void writeZip(Path p, String entryName, byte[] data) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(p))) {
+            out.putNextEntry(new ZipEntry(entryName));
+            out.write(data);
+            out.closeEntry();
+        }
+    }
+
+    private static byte[] randomBytes(int n) {
+        byte[] ret = new byte[n];
+        new Random(n).nextBytes(ret);
+        return ret;
+    }
+
+}
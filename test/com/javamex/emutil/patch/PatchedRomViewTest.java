@@ -0,0 +1,168 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PatchedRomViewTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("viewtest");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void randomReadsMatchAppliedPatch() throws IOException {
+        Random rnd = new Random(1);
+        byte[] source = randomBytes(rnd, 256 * 1024);
+        int targetSize = 1024 * 1024;
+        TestPatchBuilder forward = new TestPatchBuilder(source, targetSize)
+                .sourceRead(10000)
+                .targetRead(randomBytes(rnd, 100))
+                .sourceCopy(200000, 50000)
+                .targetCopy(5000, 100000);
+        while (forward.getTargetLength() < targetSize) {
+            int len = Math.min(targetSize - forward.getTargetLength(), 1 + rnd.nextInt(5000));
+            switch (rnd.nextInt(3)) {
+                case 0:
+                    forward.sourceCopy(rnd.nextInt(source.length - len), len);
+                    break;
+                case 1:
+                    forward.targetRead(randomBytes(rnd, Math.min(len, 50)));
+                    break;
+                default:
+                    // Sometimes overlapping the range being written
+                    forward.targetCopy(forward.getTargetLength() - 1 - rnd.nextInt(20000), len);
+                    break;
+            }
+        }
+        byte[] expected = forward.getTarget();
+
+        try (PatchedRomView view = open(source, forward.finish())) {
+            assertEquals(targetSize, view.size());
+            for (int i = 0; i < 2000; i++) {
+                int pos = rnd.nextInt(targetSize);
+                int len = Math.min(targetSize - pos, 1 + rnd.nextInt(i % 10 == 0 ? 200000 : 500));
+                assertReads(expected, view, pos, len, i % 2 == 0);
+            }
+            assertReads(expected, view, 0, targetSize, false);
+        }
+    }
+
+    @Test
+    public void shortPeriodCopiesAreRepeated() throws IOException {
+        Random rnd = new Random(2);
+        byte[] source = randomBytes(rnd, 4096);
+        TestPatchBuilder forward = new TestPatchBuilder(source, 300000)
+                .targetRead(new byte[] {0x11})
+                // Period of one byte
+                .targetCopy(0, 9999)
+                .sourceCopy(100, 2)
+                // Period of three, straddling the source copy and the run before it
+                .targetCopy(9999, 20000)
+                .targetRead(randomBytes(rnd, 5))
+                // Period of five, then a copy of part of that repeated run with a period of 7
+                .targetCopy(30002, 100000)
+                .targetCopy(50003, 7);
+        forward.targetCopy(forward.getTargetLength() - 7, 300000 - forward.getTargetLength());
+        byte[] expected = forward.getTarget();
+
+        try (PatchedRomView view = open(source, forward.finish())) {
+            for (int i = 0; i < 1000; i++) {
+                int pos = rnd.nextInt(expected.length);
+                int len = Math.min(expected.length - pos, 1 + rnd.nextInt(30000));
+                assertReads(expected, view, pos, len, i % 2 == 0);
+            }
+            assertReads(expected, view, 0, expected.length, true);
+        }
+    }
+
+    @Test
+    public void readAtEndReturnsMinusOne() throws IOException {
+        byte[] source = randomBytes(new Random(3), 1000);
+        try (PatchedRomView view = open(source, new TestPatchBuilder(source, 1000).sourceRead(1000).finish())) {
+            view.position(1000);
+            assertEquals(-1, view.read(ByteBuffer.allocate(10)));
+            view.position(995);
+            ByteBuffer buf = ByteBuffer.allocate(10);
+            assertEquals(5, view.read(buf));
+            assertArrayEquals(Arrays.copyOfRange(source, 995, 1000), Arrays.copyOf(buf.array(), 5));
+        }
+    }
+
+    private PatchedRomView open(byte[] source, byte[] patch) throws IOException {
+        Path sourceFile = dir.resolve("source.sms");
+        Path patchFile = dir.resolve("patch.bps");
+        Files.write(sourceFile, source);
+        Files.write(patchFile, patch);
+        return PatchedRomView.open(sourceFile, patchFile);
+    }
+
+    private static void assertReads(byte[] expected, PatchedRomView view, int pos, int len, boolean direct)
+            throws IOException {
+        ByteBuffer buf = direct ? ByteBuffer.allocateDirect(len) : ByteBuffer.allocate(len);
+        view.position(pos);
+        while (buf.hasRemaining()) {
+            assertTrue(view.read(buf) > 0);
+        }
+        assertEquals(pos + len, view.position());
+        byte[] actual = new byte[len];
+        buf.flip().get(actual);
+        assertArrayEquals("Read of " + len + " bytes at " + pos, Arrays.copyOfRange(expected, pos, pos + len), actual);
+    }
+
+    private static byte[] randomBytes(Random rnd, int n) {
+        byte[] ret = new byte[n];
+        rnd.nextBytes(ret);
+        return ret;
+    }
+
+}
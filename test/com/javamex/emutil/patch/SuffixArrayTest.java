@@ -0,0 +1,98 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.CancellationToken;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SuffixArrayTest {
+
+    @Test
+    public void suffixesAreSortedWithCommonPrefixes() {
+        Random rnd = new Random(1);
+        // Small alphabets give long common prefixes and many rounds of sorting
+        for (int alphabet : new int[] {1, 2, 4, 256}) {
+            byte[] first = randomBytes(rnd, 3000, alphabet);
+            byte[] second = randomBytes(rnd, 2000, alphabet);
+            check(first, second);
+        }
+        check(new byte[0], randomBytes(rnd, 100, 3));
+        check(randomBytes(rnd, 100, 3), new byte[0]);
+    }
+
+    @Test
+    public void largeGroupsAreSorted() {
+        // With two symbols, the first round's groups are large enough to be sorted in parallel
+        Random rnd = new Random(2);
+        check(randomBytes(rnd, 100000, 2), randomBytes(rnd, 100000, 2));
+    }
+
+    private static void check(byte[] first, byte[] second) {
+        SuffixArray sa = new SuffixArray(first, second, new CancellationToken());
+        int[] text = new int[first.length + 1 + second.length];
+        for (int i = 0; i < first.length; i++) {
+            text[i] = (first[i] & 0xff) + 1;
+        }
+        for (int i = 0; i < second.length; i++) {
+            text[first.length + 1 + i] = (second[i] & 0xff) + 1;
+        }
+        assertEquals(text.length, sa.length());
+
+        boolean[] found = new boolean[text.length];
+        for (int r = 0; r < text.length; r++) {
+            int p = sa.suffixAt(r);
+            assertFalse(found[p]);
+            found[p] = true;
+            assertEquals(r, sa.indexOf(p));
+            if (r > 0) {
+                int q = sa.suffixAt(r - 1);
+                int common = 0;
+                while (p + common < text.length && q + common < text.length && text[p + common] == text[q + common]) {
+                    common++;
+                }
+                assertEquals("LCP at " + r, common, sa.lcpAt(r));
+                // The earlier suffix is either a prefix of this one or has a lower next symbol
+                assertTrue("Order at " + r, q + common == text.length ||
+                        (p + common < text.length && text[q + common] < text[p + common]));
+            }
+        }
+    }
+
+    private static byte[] randomBytes(Random rnd, int n, int alphabet) {
+        byte[] ret = new byte[n];
+        for (int i = 0; i < n; i++) {
+            ret[i] = (byte) rnd.nextInt(alphabet);
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Builds a BPS patch action by action against a given source, working out the expected
+ * target as it goes so that tests can compare it with what the patcher produces.
+ */
+class TestPatchBuilder {
+
+    private final byte[] source;
+    private final ByteArrayOutputStream patch = new ByteArrayOutputStream();
+    private final BPSPatchWriter writer = new BPSPatchWriter(patch);
+    private final byte[] target;
+    private int targetLen;
+
+    TestPatchBuilder(byte[] source, int targetSize) throws IOException {
+        this.source = source;
+        this.target = new byte[targetSize];
+        writer.writeHeader(source.length, targetSize);
+    }
+
+    TestPatchBuilder sourceRead(int len) throws IOException {
+        writer.sourceRead(len);
+        System.arraycopy(source, targetLen, target, targetLen, len);
+        targetLen += len;
+        return this;
+    }
+
+    TestPatchBuilder targetRead(byte[] data) throws IOException {
+        writer.targetRead(data, 0, data.length);
+        System.arraycopy(data, 0, target, targetLen, data.length);
+        targetLen += data.length;
+        return this;
+    }
+
+    TestPatchBuilder sourceCopy(int sourcePos, int len) throws IOException {
+        writer.sourceCopy(sourcePos, len);
+        System.arraycopy(source, sourcePos, target, targetLen, len);
+        targetLen += len;
+        return this;
+    }
+
+    /**
+     * Copy from earlier in the target; the range may overlap the bytes being written,
+     * in which case it repeats with a period of {@code targetLen - targetPos}.
+     */
+    TestPatchBuilder targetCopy(int targetPos, int len) throws IOException {
+        writer.targetCopy(targetPos, len);
+        for (int i = 0; i < len; i++) {
+            target[targetLen++] = target[targetPos + i];
+        }
+        return this;
+    }
+
+    int getTargetLength() {
+        return targetLen;
+    }
+
+    byte[] getTarget() {
+        return Arrays.copyOf(target, targetLen);
+    }
+
+    /**
+     * Write the trailer and return the finished patch. All of the target declared in the
+     * header must have been written.
+     */
+    byte[] finish() throws IOException {
+        if (targetLen != target.length) {
+            throw new IllegalStateException("Target has " + targetLen + " of " + target.length + " bytes");
+        }
+        writer.finish(crc(source), crc(target));
+        return patch.toByteArray();
+    }
+
+    static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+}
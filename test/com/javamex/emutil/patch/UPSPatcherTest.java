@@ -0,0 +1,240 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class UPSPatcherTest {
+
+    private Path dir;
+    private final List<String> errors = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("upstest");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void hunksAreXoredIntoTarget() throws IOException {
+        Random rnd = new Random(1);
+        byte[] source = randomBytes(rnd, 300000);
+        byte[] target = source.clone();
+        ByteArrayOutputStream hunks = new ByteArrayOutputStream();
+        long pos = 0;
+        // Short hunks, then one spanning several of the blocks the patch is read in
+        for (int i = 0; i < 1000; i++) {
+            pos = writeHunk(hunks, target, pos, rnd.nextInt(200), nonZeroBytes(rnd, 1 + rnd.nextInt(20)));
+        }
+        writeHunk(hunks, target, pos, 10, nonZeroBytes(rnd, 150000));
+
+        assertArrayEquals(target, apply(source, patch(source, target, hunks.toByteArray())));
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void targetIsResized() throws IOException {
+        Random rnd = new Random(2);
+        byte[] source = randomBytes(rnd, 5000);
+        // Extended: the bytes beyond the source start as zero
+        byte[] extended = Arrays.copyOf(source, 8000);
+        ByteArrayOutputStream hunks = new ByteArrayOutputStream();
+        writeHunk(hunks, extended, 0, 4990, nonZeroBytes(rnd, 3000));
+        assertArrayEquals(extended, apply(source, patch(source, extended, hunks.toByteArray())));
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        // Truncated, with a hunk running over the end whose excess bytes are discarded
+        byte[] truncated = Arrays.copyOf(source, 3000);
+        byte[] data = nonZeroBytes(rnd, 100);
+        for (int i = 0; i < 50; i++) {
+            truncated[2950 + i] ^= data[i];
+        }
+        hunks.reset();
+        hunks.writeBytes(encode(2950));
+        hunks.writeBytes(data);
+        hunks.write(0);
+        assertArrayEquals(truncated, apply(source, patch(source, truncated, hunks.toByteArray())));
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void corruptPatchIsRejected() throws IOException {
+        Random rnd = new Random(3);
+        byte[] source = randomBytes(rnd, 1000);
+        byte[] target = source.clone();
+        ByteArrayOutputStream hunks = new ByteArrayOutputStream();
+        writeHunk(hunks, target, 0, 10, nonZeroBytes(rnd, 10));
+        byte[] patch = patch(source, target, hunks.toByteArray());
+        patch[8] ^= 1;
+        assertNull(apply(source, patch));
+        assertFalse(errors.isEmpty());
+    }
+
+    @Test
+    public void unterminatedHunkIsRejected() throws IOException {
+        Random rnd = new Random(4);
+        byte[] source = randomBytes(rnd, 1000);
+        ByteArrayOutputStream hunks = new ByteArrayOutputStream();
+        hunks.writeBytes(encode(10));
+        hunks.writeBytes(nonZeroBytes(rnd, 20));
+        // The trailer's CRCs follow with no terminating zero
+        byte[] target = source.clone();
+        for (int i = 0; i < 20; i++) {
+            target[10 + i] = 1;
+        }
+        assertNull(apply(source, patch(source, target, hunks.toByteArray())));
+        assertFalse(errors.isEmpty());
+    }
+
+    /**
+     * Write a hunk that skips {@code skip} bytes from {@code pos} and XORs {@code data} into the
+     * target from there, applying it to {@code target} too.
+     *
+     * @return the target position after the hunk
+     */
+    private static long writeHunk(ByteArrayOutputStream out, byte[] target, long pos, int skip, byte[] data) {
+        out.writeBytes(encode(skip));
+        out.writeBytes(data);
+        out.write(0);
+        int start = (int) pos + skip;
+        for (int i = 0; i < data.length; i++) {
+            target[start + i] ^= data[i];
+        }
+        return start + data.length + 1;
+    }
+
+    private static byte[] patch(byte[] source, byte[] target, byte[] hunks) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("UPS1".getBytes());
+        out.writeBytes(encode(source.length));
+        out.writeBytes(encode(target.length));
+        out.writeBytes(hunks);
+        writeU32(out, crc(source));
+        writeU32(out, crc(target));
+        writeU32(out, crc(out.toByteArray()));
+        return out.toByteArray();
+    }
+
+    private byte[] apply(byte[] source, byte[] patch) throws IOException {
+        Path sourceFile = dir.resolve("source.sms");
+        Path patchFile = dir.resolve("patch.ups");
+        Path out = dir.resolve("out.sms");
+        Files.write(sourceFile, source);
+        Files.write(patchFile, patch);
+        Files.deleteIfExists(out);
+        UPSPatchParams params = new UPSPatchParams();
+        params.setInput(UPSPatchParams.SPEC_INPUT_ROM, sourceFile);
+        params.setInput(UPSPatchParams.SPEC_PATCH_FILE, patchFile);
+        params.setOutput(UPSPatchParams.SPEC_OUTPUT, out);
+        new UPSPatcher(params).runFunction(new ProgressConsumer() {
+            @Override
+            public void onDebugMessage(String msg) {
+            }
+
+            @Override
+            public void onSourceError(FileSpec file, long fileOffset, String message) {
+                errors.add(message);
+            }
+
+            @Override
+            public void onFatalError(Throwable t) {
+                errors.add(String.valueOf(t));
+            }
+        }, new CancellationToken());
+        return Files.exists(out) ? Files.readAllBytes(out) : null;
+    }
+
+    /**
+     * UPS variable-length integer: seven bits per byte, the final byte marked by its top bit,
+     * and each continuation byte implicitly adding one to the remainder.
+     */
+    private static byte[] encode(long value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (true) {
+            int x = (int) (value & 0x7f);
+            value >>>= 7;
+            if (value == 0) {
+                out.write(0x80 | x);
+                return out.toByteArray();
+            }
+            out.write(x);
+            value--;
+        }
+    }
+
+    private static void writeU32(ByteArrayOutputStream out, long value) {
+        for (int i = 0; i < 4; i++) {
+            out.write((int) (value >>> (i * 8)));
+        }
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static byte[] nonZeroBytes(Random rnd, int n) {
+        byte[] ret = new byte[n];
+        for (int i = 0; i < n; i++) {
+            ret[i] = (byte) (1 + rnd.nextInt(255));
+        }
+        return ret;
+    }
+
+    private static byte[] randomBytes(Random rnd, int n) {
+        byte[] ret = new byte[n];
+        rnd.nextBytes(ret);
+        return ret;
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2023, Neil Coffey
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.javamex.emutil.patch;
+
+import com.javamex.emutil.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class UndoPatchBuilderTest {
+
+    private Path dir;
+    private final List<String> errors = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("undotest");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void undoRestoresDiscardedSourceAndTargetCopies() throws IOException {
+        byte[] source = randomBytes(65536, 1);
+        TestPatchBuilder forward = new TestPatchBuilder(source, 18039)
+                .sourceRead(1000)
+                .targetRead(randomBytes(500, 2))
+                // 1000-5000 of the source is discarded
+                .sourceCopy(5000, 3000)
+                .targetCopy(0, 2000)
+                .targetRead(new byte[] {1, 2, 3})
+                // Overlapping copy that repeats the last three bytes
+                .targetCopy(6500, 1000)
+                // Backwards and overlapping source copies
+                .sourceCopy(20000, 4000)
+                .sourceCopy(3000, 1000)
+                .sourceCopy(21000, 500)
+                // 24000-60000 is discarded, as is the end of the source
+                .sourceCopy(60000, 5000)
+                .targetCopy(100, 36);
+        assertEquals(18039, forward.getTargetLength());
+
+        byte[] patched = apply(source, forward.finish(), true);
+        assertArrayEquals(forward.getTarget(), patched);
+        byte[] undo = Files.readAllBytes(dir.resolve("undo.bps"));
+        assertArrayEquals(source, apply(patched, undo, false));
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void undoRestoresSourceReplacedByLiterals() throws IOException {
+        byte[] source = randomBytes(4096, 3);
+        TestPatchBuilder forward = new TestPatchBuilder(source, 6000)
+                .targetRead(randomBytes(100, 4))
+                .sourceRead(900)
+                .targetRead(randomBytes(4, 5))
+                .targetCopy(1000, 4996);
+
+        byte[] patched = apply(source, forward.finish(), true);
+        assertArrayEquals(forward.getTarget(), patched);
+        byte[] undo = Files.readAllBytes(dir.resolve("undo.bps"));
+        assertArrayEquals(source, apply(patched, undo, false));
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    private byte[] apply(byte[] source, byte[] patch, boolean writeUndo) throws IOException {
+        Path sourceFile = dir.resolve("source.sms");
+        Path patchFile = dir.resolve("patch.bps");
+        Path out = dir.resolve("out.sms");
+        Files.write(sourceFile, source);
+        Files.write(patchFile, patch);
+        Files.deleteIfExists(out);
+        BPSPatchParams params = new BPSPatchParams();
+        params.setInput(BPSPatchParams.SPEC_INPUT_ROM, sourceFile);
+        params.setInput(BPSPatchParams.SPEC_PATCH_FILE, patchFile);
+        params.setOutput(BPSPatchParams.SPEC_OUTPUT, out);
+        if (writeUndo) {
+            params.setOutput(BPSPatchParams.SPEC_UNDO_PATCH, dir.resolve("undo.bps"));
+        }
+        new BPSPatcher(params).runFunction(new ProgressConsumer() {
+            @Override
+            public void onDebugMessage(String msg) {
+            }
+
+            @Override
+            public void onSourceError(FileSpec file, long fileOffset, String message) {
+                errors.add(message);
+            }
+
+            @Override
+            public void onFatalError(Throwable t) {
+                errors.add(String.valueOf(t));
+            }
+        }, new CancellationToken());
+        return Files.exists(out) ? Files.readAllBytes(out) : null;
+    }
+
+    private static byte[] randomBytes(int n, long seed) {
+        byte[] ret = new byte[n];
+        new Random(seed).nextBytes(ret);
+        return ret;
+    }
+
+}